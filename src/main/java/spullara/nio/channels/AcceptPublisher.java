@@ -0,0 +1,180 @@
+package spullara.nio.channels;
+
+import spullara.util.concurrent.Publisher;
+import spullara.util.concurrent.Subscriber;
+import spullara.util.concurrent.Subscription;
+
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Accept loop for a FutureServerSocketChannel that only accepts when the
+ * subscriber has asked for another connection and fewer than the maximum
+ * number of accepted connections are still open. A connection counts as
+ * open until close() is called on it.
+ *
+ * An AsynchronousServerSocketChannel allows a single outstanding accept, so
+ * there is never more than one in flight. The next accept isn't started
+ * until onNext() returns, so signals to the subscriber never overlap, and
+ * a terminal signal that arrives during onNext() waits for it to return.
+ * An onNext() that throws closes the connection it was given, cancels the
+ * stream and fails it with what was thrown.
+ * The stream completes when the server channel is closed.
+ */
+public class AcceptPublisher implements Publisher<FutureSocketChannel>, Subscription,
+        CompletionHandler<AsynchronousSocketChannel, Void> {
+
+    private final FutureServerSocketChannel server;
+    private final int maxConnections;
+    private final boolean shed;
+    private final AtomicReference<Subscriber<? super FutureSocketChannel>> subscriber = new AtomicReference<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger open = new AtomicInteger();
+    private static final int IDLE = 0;
+    private static final int ACCEPTING = 1;
+    private static final int EMITTING = 2;
+    private static final int DONE = 3;
+    private static final Object COMPLETED = new Object();
+
+    private final AtomicInteger state = new AtomicInteger();
+    // COMPLETED or the error, to be signalled once nothing else is
+    private final AtomicReference<Object> terminal = new AtomicReference<>();
+    private volatile boolean cancelled;
+
+    AcceptPublisher(FutureServerSocketChannel server, int maxConnections, boolean shed) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections must be positive: " + maxConnections);
+        }
+        this.server = server;
+        this.maxConnections = maxConnections;
+        this.shed = shed;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super FutureSocketChannel> subscriber) {
+        if (this.subscriber.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(this);
+            server.closeFuture().thenRun(() -> terminate(null));
+        } else {
+            subscriber.onSubscribe(this);
+            subscriber.onError(new IllegalStateException("Only a single subscriber is supported"));
+        }
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            terminate(new IllegalArgumentException("Demand must be positive: " + n));
+            return;
+        }
+        demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+        accept();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Number of accepted connections that haven't been closed yet.
+     */
+    public int getOpenConnections() {
+        return open.get();
+    }
+
+    private void accept() {
+        if (!cancelled && demand.get() > 0 && (shed || open.get() < maxConnections) && state.compareAndSet(IDLE, ACCEPTING)) {
+            try {
+                server.accept(null, this);
+            } catch (RuntimeException e) {
+                failed(e, null);
+            }
+        }
+    }
+
+    @Override
+    public void completed(AsynchronousSocketChannel channel, Void v) {
+        FutureSocketChannel fsc = server.accepted(channel);
+        boolean cancelled = this.cancelled;
+        if (cancelled || open.incrementAndGet() > maxConnections) {
+            if (!cancelled) open.decrementAndGet();
+            fsc.close();
+            if (state.compareAndSet(ACCEPTING, IDLE)) {
+                accept();
+            }
+            return;
+        }
+        if (!state.compareAndSet(ACCEPTING, EMITTING)) {
+            // Terminated while the accept was in flight
+            open.decrementAndGet();
+            fsc.close();
+            return;
+        }
+        demand.decrementAndGet();
+        fsc.closeFuture().thenRun(() -> {
+            open.decrementAndGet();
+            accept();
+        });
+        Throwable thrown = null;
+        try {
+            subscriber.get().onNext(fsc);
+        } catch (Throwable th) {
+            thrown = th;
+        } finally {
+            state.set(IDLE);
+        }
+        if (thrown != null) {
+            // The subscriber may not have kept the connection
+            fsc.close();
+            terminate(thrown);
+        } else if (terminal.get() != null) {
+            signalTerminal();
+        } else {
+            accept();
+        }
+    }
+
+    @Override
+    public void failed(Throwable th, Void v) {
+        server.acceptFailed();
+        if (th instanceof AsynchronousCloseException || th instanceof ClosedChannelException) {
+            terminate(null);
+        } else {
+            terminate(th);
+        }
+    }
+
+    private void terminate(Throwable th) {
+        cancelled = true;
+        terminal.compareAndSet(null, th == null ? COMPLETED : th);
+        signalTerminal();
+    }
+
+    /**
+     * Signal the terminal event unless onNext() is running, in which case
+     * it is signalled when onNext() returns.
+     */
+    private void signalTerminal() {
+        while (true) {
+            int current = state.get();
+            if (current == EMITTING || current == DONE) {
+                return;
+            }
+            if (state.compareAndSet(current, DONE)) {
+                Object signal = terminal.get();
+                if (signal == COMPLETED) {
+                    subscriber.get().onComplete();
+                } else {
+                    subscriber.get().onError((Throwable) signal);
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package spullara.nio.channels;
+
+import spullara.util.Histogram;
+import spullara.util.concurrent.TimerWheel;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Spreads requests over a set of addresses, each reached through a single
+ * MuxChannel. Every request goes to the less loaded of two randomly chosen
+ * addresses, measured by outstanding requests. If it hasn't completed
+ * within the hedge percentile of recent latencies a backup is sent to
+ * another address, the first response wins and the other request is
+ * cancelled, which frees its tag on the connection and tells the server
+ * to stop working on it.
+ *
+ * Hedging starts once enough latencies have been seen to estimate the
+ * percentile. Requests must be safe to send twice.
+ */
+public class BalancedClient {
+
+    private static final int HEDGE_WINDOW = 1000;
+
+    private final Endpoint[] endpoints;
+    private final Histogram latencies = new Histogram();
+    private TimerWheel timer = TimerWheel.getShared();
+    private volatile double hedgePercentile = 95;
+    private volatile long hedgeDelay;
+    private volatile boolean closed;
+
+    public BalancedClient(List<? extends SocketAddress> addresses) {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("No addresses");
+        }
+        endpoints = new Endpoint[addresses.size()];
+        for (int i = 0; i < endpoints.length; i++) {
+            endpoints[i] = new Endpoint(addresses.get(i));
+        }
+    }
+
+    /**
+     * Percentile of recent latencies, from 0 to 100, to wait before sending
+     * a backup request. 0 disables hedging.
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        if (hedgePercentile < 0 || hedgePercentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile: " + hedgePercentile);
+        }
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * Current delay before a backup request is sent, 0 while there isn't
+     * enough data to hedge.
+     */
+    public long getHedgeDelay(TimeUnit unit) {
+        return unit.convert(hedgeDelay, TimeUnit.NANOSECONDS);
+    }
+
+    public void setTimer(TimerWheel timer) {
+        this.timer = timer;
+    }
+
+    public int getOutstanding(SocketAddress address) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.address.equals(address)) {
+                return endpoint.outstanding.get();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Send a request, completing with the first response. The payload must
+     * not be modified until the returned future is complete. Cancelling
+     * the future cancels every request sent for it.
+     */
+    public CompletableFuture<ByteBuffer> request(ByteBuffer payload) {
+        if (closed) {
+            CompletableFuture<ByteBuffer> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Client is closed"));
+            return failed;
+        }
+        Endpoint primary = choose(null);
+        long delay = hedgeDelay;
+        if (delay == 0 || hedgePercentile == 0) {
+            return send(primary, payload.duplicate(), true);
+        }
+        Hedged hedged = new Hedged(primary, payload);
+        hedged.timeout = timer.schedule(hedged, delay, TimeUnit.NANOSECONDS);
+        if (hedged.isDone()) {
+            hedged.timeout.cancel();
+        }
+        return hedged;
+    }
+
+    /**
+     * Close every connection. Outstanding requests fail.
+     */
+    public void close() {
+        closed = true;
+        for (Endpoint endpoint : endpoints) {
+            endpoint.close();
+        }
+    }
+
+    /**
+     * Power of two choices, never picking the excluded endpoint if there
+     * is any other.
+     */
+    private Endpoint choose(Endpoint exclude) {
+        int n = endpoints.length;
+        if (n == 1) return endpoints[0];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(n);
+        int b = random.nextInt(n - 1);
+        if (b >= a) b++;
+        Endpoint first = endpoints[a];
+        Endpoint second = endpoints[b];
+        if (first == exclude) return second;
+        if (second == exclude) return first;
+        return first.outstanding.get() <= second.outstanding.get() ? first : second;
+    }
+
+    /**
+     * @param timed record the latency of the attempt. Hedged requests record
+     *              their own latency from the original send instead, so
+     *              slow attempts that lose the race are still counted.
+     */
+    private Attempt send(Endpoint endpoint, ByteBuffer payload, boolean timed) {
+        Attempt attempt = new Attempt();
+        endpoint.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        endpoint.connection().whenComplete((mux, th) -> {
+            if (th != null) {
+                endpoint.outstanding.decrementAndGet();
+                attempt.completeExceptionally(th);
+                return;
+            }
+            CompletableFuture<ByteBuffer> exchange = mux.request(payload);
+            attempt.exchange = exchange;
+            if (attempt.isCancelled()) {
+                exchange.cancel(true);
+            }
+            exchange.whenComplete((response, eth) -> {
+                endpoint.outstanding.decrementAndGet();
+                if (eth == null) {
+                    if (timed) record(System.nanoTime() - start);
+                    attempt.complete(response);
+                } else {
+                    attempt.completeExceptionally(eth);
+                }
+            });
+        });
+        return attempt;
+    }
+
+    private void record(long latency) {
+        latencies.record(latency);
+        if (latencies.getCount() >= HEDGE_WINDOW) {
+            synchronized (latencies) {
+                if (latencies.getCount() >= HEDGE_WINDOW) {
+                    hedgeDelay = Math.max(1, latencies.getValueAtPercentile(hedgePercentile));
+                    latencies.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * A request sent to one endpoint. Cancelling it cancels the request on
+     * the connection.
+     */
+    private static class Attempt extends CompletableFuture<ByteBuffer> {
+        volatile CompletableFuture<ByteBuffer> exchange;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            CompletableFuture<ByteBuffer> exchange = this.exchange;
+            if (exchange != null) {
+                exchange.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * A primary request and possibly a backup. Fails only once every
+     * request sent has failed.
+     */
+    private class Hedged extends CompletableFuture<ByteBuffer> implements Runnable {
+        final Endpoint primary;
+        final ByteBuffer payload;
+        final Attempt first;
+        final AtomicInteger live = new AtomicInteger(1);
+        final long start = System.nanoTime();
+        volatile Attempt backup;
+        volatile TimerWheel.Timeout timeout;
+
+        Hedged(Endpoint primary, ByteBuffer payload) {
+            this.primary = primary;
+            this.payload = payload;
+            first = send(primary, payload.duplicate(), false);
+            watch(first);
+            whenComplete((response, th) -> {
+                TimerWheel.Timeout timeout = this.timeout;
+                if (timeout != null) timeout.cancel();
+                first.cancel(true);
+                Attempt backup = this.backup;
+                if (backup != null) backup.cancel(true);
+            });
+        }
+
+        /**
+         * Hedge timer fired
+         */
+        public void run() {
+            if (isDone()) return;
+            live.incrementAndGet();
+            Attempt backup = this.backup = send(choose(primary), payload.duplicate(), false);
+            watch(backup);
+            if (isDone()) {
+                backup.cancel(true);
+            }
+        }
+
+        private void watch(Attempt attempt) {
+            attempt.whenComplete((response, th) -> {
+                if (th == null) {
+                    if (complete(response)) {
+                        // End to end, so the window includes the requests
+                        // that needed hedging
+                        record(System.nanoTime() - start);
+                    }
+                } else if (live.decrementAndGet() == 0) {
+                    completeExceptionally(th);
+                }
+            });
+        }
+    }
+
+    private static class Endpoint {
+        final SocketAddress address;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicReference<CompletableFuture<MuxChannel>> connection = new AtomicReference<>();
+
+        Endpoint(SocketAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * The current connection, or a new one if there is none or it has
+         * failed or closed.
+         */
+        CompletableFuture<MuxChannel> connection() {
+            while (true) {
+                CompletableFuture<MuxChannel> current = connection.get();
+                if (current != null && !current.isCompletedExceptionally() && (!current.isDone() || current.join().isOpen())) {
+                    return current;
+                }
+                CompletableFuture<MuxChannel> next = new CompletableFuture<>();
+                if (connection.compareAndSet(current, next)) {
+                    connect(next);
+                    return next;
+                }
+            }
+        }
+
+        private void connect(CompletableFuture<MuxChannel> connector) {
+            try {
+                FutureSocketChannel channel = FutureSocketChannel.open();
+                channel.connect(address).whenComplete((v, th) -> {
+                    if (th == null) {
+                        connector.complete(new MuxChannel(channel));
+                    } else {
+                        channel.close();
+                        connector.completeExceptionally(th);
+                    }
+                });
+            } catch (IOException e) {
+                connector.completeExceptionally(e);
+            }
+        }
+
+        void close() {
+            CompletableFuture<MuxChannel> current = connection.get();
+            if (current != null) {
+                current.thenAccept(MuxChannel::close);
+            }
+        }
+    }
+}
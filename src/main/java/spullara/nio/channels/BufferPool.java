@@ -0,0 +1,202 @@
+package spullara.nio.channels;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool of direct buffers organized in power of two size classes. Each
+ * thread that leases buffers keeps a small cache of them per size class
+ * in front of a shared cache so that steady state lease / release doesn't
+ * allocate or contend. Threads that only release buffers, like the I/O
+ * threads finishing writes leased by callers, give them straight to the
+ * shared cache where the leasing threads will find them. Buffers larger
+ * than the largest size class are allocated on demand and dropped when
+ * released.
+ *
+ * Leased buffers must be given back with release() exactly once and
+ * must not be used afterwards.
+ */
+public class BufferPool {
+
+    private static final BufferPool DEFAULT = new BufferPool(512, 65536, 16, 256);
+
+    private final int minShift;
+    private final int maxSize;
+    private final SharedCache[] shared;
+    private final ThreadLocal<ThreadCache> threadCache;
+
+    /**
+     * @param minSize         smallest size class, rounded up to a power of two
+     * @param maxSize         largest size class, rounded up to a power of two
+     * @param threadCacheSize buffers cached per thread per size class
+     * @param sharedCacheSize buffers cached across threads per size class,
+     *                        rounded up to a power of two
+     */
+    public BufferPool(int minSize, int maxSize, int threadCacheSize, int sharedCacheSize) {
+        if (minSize <= 0 || maxSize < minSize || maxSize > 1 << 30) {
+            throw new IllegalArgumentException("Invalid size classes: " + minSize + " - " + maxSize);
+        }
+        this.minShift = shift(minSize);
+        this.maxSize = 1 << shift(maxSize);
+        int classes = shift(maxSize) - minShift + 1;
+        shared = new SharedCache[classes];
+        for (int i = 0; i < classes; i++) {
+            shared[i] = new SharedCache(sharedCacheSize);
+        }
+        threadCache = ThreadLocal.withInitial(() -> new ThreadCache(classes, threadCacheSize));
+    }
+
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Lease a cleared direct buffer with at least size bytes of capacity.
+     */
+    public ByteBuffer lease(int size) {
+        if (size > maxSize) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        int sizeClass = sizeClass(size);
+        ThreadCache cache = threadCache.get();
+        cache.leasing = true;
+        ByteBuffer buffer = cache.pop(sizeClass);
+        if (buffer == null) {
+            buffer = shared[sizeClass].poll();
+            if (buffer == null) {
+                return ByteBuffer.allocateDirect(1 << (sizeClass + minShift));
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Give a leased buffer back to the pool. Buffers that didn't come
+     * from a pool size class are ignored.
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || capacity > maxSize || Integer.bitCount(capacity) != 1 || capacity < 1 << minShift) {
+            return;
+        }
+        buffer.clear();
+        int sizeClass = sizeClass(capacity);
+        ThreadCache cache = threadCache.get();
+        if (cache.leasing && cache.push(sizeClass, buffer)) {
+            return;
+        }
+        // Dropped if the shared cache is full
+        shared[sizeClass].offer(buffer);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    private int sizeClass(int size) {
+        return Math.max(0, shift(Math.max(size, 1)) - minShift);
+    }
+
+    private static int shift(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    private static class ThreadCache {
+        private final ByteBuffer[][] stacks;
+        private final int[] sizes;
+        // Only threads that lease keep what they release
+        boolean leasing;
+
+        ThreadCache(int classes, int depth) {
+            stacks = new ByteBuffer[classes][depth];
+            sizes = new int[classes];
+        }
+
+        ByteBuffer pop(int sizeClass) {
+            int size = sizes[sizeClass];
+            if (size == 0) return null;
+            ByteBuffer[] stack = stacks[sizeClass];
+            ByteBuffer buffer = stack[--size];
+            stack[size] = null;
+            sizes[sizeClass] = size;
+            return buffer;
+        }
+
+        boolean push(int sizeClass, ByteBuffer buffer) {
+            ByteBuffer[] stack = stacks[sizeClass];
+            int size = sizes[sizeClass];
+            if (size == stack.length) return false;
+            stack[size] = buffer;
+            sizes[sizeClass] = size + 1;
+            return true;
+        }
+    }
+
+    /**
+     * Bounded queue of buffers shared by every thread. Slots are reused
+     * rather than linking a node per buffer, so it never allocates. Each
+     * slot's sequence says whether it is ready to be filled or emptied on
+     * the current lap.
+     */
+    private static class SharedCache {
+        private final AtomicReferenceArray<ByteBuffer> slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        SharedCache(int capacity) {
+            int size = capacity <= 0 ? 0 : 1 << shift(capacity);
+            slots = new AtomicReferenceArray<>(size);
+            sequences = new AtomicLongArray(size);
+            mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        /**
+         * Returns false if it is full.
+         */
+        boolean offer(ByteBuffer buffer) {
+            if (mask < 0) return false;
+            while (true) {
+                long position = tail.get();
+                int index = (int) position & mask;
+                long sequence = sequences.get(index);
+                if (sequence == position) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots.lazySet(index, buffer);
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                } else if (sequence < position) {
+                    // Not yet emptied since the last lap
+                    return false;
+                }
+            }
+        }
+
+        ByteBuffer poll() {
+            if (mask < 0) return null;
+            while (true) {
+                long position = head.get();
+                int index = (int) position & mask;
+                long sequence = sequences.get(index);
+                if (sequence == position + 1) {
+                    if (head.compareAndSet(position, position + 1)) {
+                        ByteBuffer buffer = slots.get(index);
+                        slots.lazySet(index, null);
+                        sequences.set(index, position + mask + 1);
+                        return buffer;
+                    }
+                } else if (sequence < position + 1) {
+                    // Not yet filled
+                    return null;
+                }
+            }
+        }
+    }
+}
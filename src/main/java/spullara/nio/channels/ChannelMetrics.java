@@ -0,0 +1,410 @@
+package spullara.nio.channels;
+
+import spullara.util.Histogram;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * I/O counters for the channels that share it. Channels have no metrics
+ * until one is set, so uninstrumented channels pay nothing. Counters are
+ * LongAdders and latencies go into Histograms built from them, so channels
+ * on different threads can share metrics without contending on a single
+ * cache line.
+ *
+ * Read and write latency are from starting an operation on the socket to
+ * its completion, so a read includes waiting for the peer to send.
+ * Callback time is how long completing the futures took in the completion
+ * handler, which is where dependent stages run unless they are async. A
+ * latency spike with normal I/O latency and high callback time is in our
+ * own code, and one with neither is waiting for a completion thread.
+ *
+ * Metrics created with a parent also count everything into the parent, so
+ * each channel can have its own while the group or server sees the sum.
+ */
+public class ChannelMetrics implements ChannelMetricsMBean {
+
+    private final ChannelMetrics parent;
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder readsInFlight = new LongAdder();
+    private final LongAdder writesInFlight = new LongAdder();
+    private final LongAdder pendingWriteBytes = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder acceptsPending = new LongAdder();
+    private final LongAdder acceptedOpen = new LongAdder();
+    private final Histogram readLatency = new Histogram();
+    private final Histogram writeLatency = new Histogram();
+    private final Histogram callbackTime = new Histogram();
+    private volatile ObjectName registered;
+
+    public ChannelMetrics() {
+        this(null);
+    }
+
+    public ChannelMetrics(ChannelMetrics parent) {
+        this.parent = parent;
+    }
+
+    public ChannelMetrics getParent() {
+        return parent;
+    }
+
+    long readStarted() {
+        for (ChannelMetrics m = this; m != null; m = m.parent) {
+            m.readsInFlight.increment();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Returns the time it completed, to start timing the callbacks.
+     */
+    long readCompleted(long started, long bytes) {
+        long now = System.nanoTime();
+        for (ChannelMetrics m = this; m != null; m = m.parent) {
+            m.readsInFlight.decrement();
+            m.readLatency.record(now - started);
+            if (bytes > 0) m.bytesRead.add(bytes);
+        }
+        return now;
+    }
+
+    long writeStarted() {
+        for (ChannelMetrics m = this; m != null; m = m.parent) {
+            m.writesInFlight.increment();
+        }
+        return System.nanoTime();
+    }
+
+    long writeCompleted(long started, long bytes) {
+        long now = System.nanoTime();
+        for (ChannelMetrics m = this; m != null; m = m.parent) {
+            m.writesInFlight.decrement();
+            m.writeLatency.record(now - started);
+            m.bytesWritten.add(bytes);
+            m.pendingWriteBytes.add(-bytes);
+        }
+        return now;
+    }
+
+    /**
+     * Bytes added to a write queue, or removed without being written if
+     * negative.
+     */
+    void queued(long bytes) {
+        for (ChannelMetrics m = this; m != null; m = m.parent) {
+            m.pendingWriteBytes.add(bytes);
+        }
+    }
+
+    void callbackCompleted(long started) {
+        long elapsed = System.nanoTime() - started;
+        for (ChannelMetrics m = this; m != null; m = m.parent) {
+            m.callbackTime.record(elapsed);
+        }
+    }
+
+    void acceptStarted() {
+        for (ChannelMetrics m = this; m != null; m = m.parent) {
+            m.acceptsPending.increment();
+        }
+    }
+
+    void acceptCompleted(boolean success) {
+        for (ChannelMetrics m = this; m != null; m = m.parent) {
+            m.acceptsPending.decrement();
+            if (success) {
+                m.accepted.increment();
+                m.acceptedOpen.increment();
+            }
+        }
+    }
+
+    void acceptedClosed() {
+        for (ChannelMetrics m = this; m != null; m = m.parent) {
+            m.acceptedOpen.decrement();
+        }
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getReadsInFlight() {
+        return readsInFlight.sum();
+    }
+
+    @Override
+    public long getWritesInFlight() {
+        return writesInFlight.sum();
+    }
+
+    /**
+     * Bytes queued for writing that haven't been written yet.
+     */
+    @Override
+    public long getPendingWriteBytes() {
+        return pendingWriteBytes.sum();
+    }
+
+    @Override
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * Accepts waiting for a connection. The kernel's backlog of connections
+     * waiting to be accepted isn't visible to asynchronous channels, but a
+     * server that is keeping up always has an accept pending.
+     */
+    @Override
+    public long getAcceptsPending() {
+        return acceptsPending.sum();
+    }
+
+    /**
+     * Depth of the accept queue as the server sees it: accepts waiting for
+     * a connection plus accepted connections that are still open. The
+     * kernel's own backlog isn't visible to asynchronous channels.
+     */
+    @Override
+    public long getAcceptQueueDepth() {
+        return acceptsPending.sum() + acceptedOpen.sum();
+    }
+
+    public Histogram getReadLatency() {
+        return readLatency;
+    }
+
+    public Histogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    public Histogram getCallbackTime() {
+        return callbackTime;
+    }
+
+    @Override
+    public long getReadLatencyP50() {
+        return readLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getReadLatencyP99() {
+        return readLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getReadLatencyMax() {
+        return readLatency.getMax();
+    }
+
+    @Override
+    public long getWriteLatencyP50() {
+        return writeLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getWriteLatencyP99() {
+        return writeLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getWriteLatencyMax() {
+        return writeLatency.getMax();
+    }
+
+    @Override
+    public long getCallbackTimeP50() {
+        return callbackTime.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getCallbackTimeP99() {
+        return callbackTime.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getCallbackTimeMax() {
+        return callbackTime.getMax();
+    }
+
+    /**
+     * Clear the byte counts and latencies. Gauges like operations in flight
+     * and pending write bytes are left alone since they would go negative.
+     */
+    @Override
+    public void reset() {
+        bytesRead.reset();
+        bytesWritten.reset();
+        accepted.reset();
+        readLatency.reset();
+        writeLatency.reset();
+        callbackTime.reset();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Register with the platform MBean server as
+     * spullara.nio.channels:type=ChannelMetrics,name="name".
+     */
+    public void register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("spullara.nio.channels:type=ChannelMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        registered = objectName;
+    }
+
+    public void unregister() throws JMException {
+        ObjectName objectName = registered;
+        if (objectName != null) {
+            registered = null;
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+    }
+
+    /**
+     * The metrics at a point in time. Each value is read separately so they
+     * may be slightly inconsistent with each other while I/O is happening.
+     */
+    public static class Snapshot {
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final long readsInFlight;
+        private final long writesInFlight;
+        private final long pendingWriteBytes;
+        private final long accepted;
+        private final long acceptsPending;
+        private final long acceptQueueDepth;
+        private final Latency readLatency;
+        private final Latency writeLatency;
+        private final Latency callbackTime;
+
+        Snapshot(ChannelMetrics metrics) {
+            bytesRead = metrics.getBytesRead();
+            bytesWritten = metrics.getBytesWritten();
+            readsInFlight = metrics.getReadsInFlight();
+            writesInFlight = metrics.getWritesInFlight();
+            pendingWriteBytes = metrics.getPendingWriteBytes();
+            accepted = metrics.getAccepted();
+            acceptsPending = metrics.getAcceptsPending();
+            acceptQueueDepth = metrics.getAcceptQueueDepth();
+            readLatency = new Latency(metrics.readLatency);
+            writeLatency = new Latency(metrics.writeLatency);
+            callbackTime = new Latency(metrics.callbackTime);
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public long getReadsInFlight() {
+            return readsInFlight;
+        }
+
+        public long getWritesInFlight() {
+            return writesInFlight;
+        }
+
+        public long getPendingWriteBytes() {
+            return pendingWriteBytes;
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        public long getAcceptsPending() {
+            return acceptsPending;
+        }
+
+        public long getAcceptQueueDepth() {
+            return acceptQueueDepth;
+        }
+
+        public Latency getReadLatency() {
+            return readLatency;
+        }
+
+        public Latency getWriteLatency() {
+            return writeLatency;
+        }
+
+        public Latency getCallbackTime() {
+            return callbackTime;
+        }
+
+        @Override
+        public String toString() {
+            return "read " + bytesRead + "B " + readsInFlight + " in flight " + readLatency +
+                    ", written " + bytesWritten + "B " + writesInFlight + " in flight " + pendingWriteBytes + "B pending " + writeLatency +
+                    ", callbacks " + callbackTime + ", accepted " + accepted + " " + acceptsPending + " pending " + acceptQueueDepth + " queued";
+        }
+    }
+
+    /**
+     * Summary of a latency histogram in nanos.
+     */
+    public static class Latency {
+        private final long count;
+        private final double mean;
+        private final long p50;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        Latency(Histogram histogram) {
+            count = histogram.getCount();
+            mean = histogram.getMean();
+            p50 = histogram.getValueAtPercentile(50);
+            p99 = histogram.getValueAtPercentile(99);
+            p999 = histogram.getValueAtPercentile(99.9);
+            max = histogram.getMax();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[n=%d mean=%.0f p50=%d p99=%d p99.9=%d max=%d]", count, mean, p50, p99, p999, max);
+        }
+    }
+}
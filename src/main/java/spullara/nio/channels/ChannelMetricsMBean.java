@@ -0,0 +1,43 @@
+package spullara.nio.channels;
+
+/**
+ * JMX view of ChannelMetrics. Latencies are in nanos.
+ */
+public interface ChannelMetricsMBean {
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getReadsInFlight();
+
+    long getWritesInFlight();
+
+    long getPendingWriteBytes();
+
+    long getAccepted();
+
+    long getAcceptsPending();
+
+    long getAcceptQueueDepth();
+
+    long getReadLatencyP50();
+
+    long getReadLatencyP99();
+
+    long getReadLatencyMax();
+
+    long getWriteLatencyP50();
+
+    long getWriteLatencyP99();
+
+    long getWriteLatencyMax();
+
+    long getCallbackTimeP50();
+
+    long getCallbackTimeP99();
+
+    long getCallbackTimeMax();
+
+    void reset();
+}
@@ -0,0 +1,290 @@
+package spullara.nio.channels;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Pool of connected FutureSocketChannels per address. Checkout takes the
+ * most recently released idle connection, opens a new one if the address
+ * is under its connection limit or otherwise waits in line behind earlier
+ * callers for a connection to be released.
+ *
+ * Idle connections beyond minIdle are closed once they have been idle for
+ * the idle timeout, and each address is topped back up to minIdle idle
+ * connections once it has been used.
+ */
+public class ChannelPool {
+
+    private final AsynchronousChannelGroup group;
+    private final int minIdle;
+    private final int maxIdle;
+    private final int maxConnections;
+    private final long idleTimeout;
+    private final ConcurrentHashMap<SocketAddress, Host> hosts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    private volatile Predicate<FutureSocketChannel> healthCheck = FutureSocketChannel::isOpen;
+    private volatile boolean closed;
+
+    public ChannelPool(int minIdle, int maxIdle, int maxConnections, long idleTimeout, TimeUnit unit) {
+        this(null, minIdle, maxIdle, maxConnections, idleTimeout, unit);
+    }
+
+    /**
+     * @param group          group to open connections in, null for the default group
+     * @param minIdle        idle connections to keep per address
+     * @param maxIdle        most idle connections to keep per address
+     * @param maxConnections most open connections per address, idle or not
+     * @param idleTimeout    how long a connection beyond minIdle may stay idle
+     */
+    public ChannelPool(AsynchronousChannelGroup group, int minIdle, int maxIdle, int maxConnections, long idleTimeout, TimeUnit unit) {
+        if (minIdle < 0 || maxIdle < minIdle || maxConnections < Math.max(maxIdle, 1)) {
+            throw new IllegalArgumentException("Invalid pool sizes: " + minIdle + ", " + maxIdle + ", " + maxConnections);
+        }
+        this.group = group;
+        this.minIdle = minIdle;
+        this.maxIdle = maxIdle;
+        this.maxConnections = maxConnections;
+        this.idleTimeout = unit.toNanos(idleTimeout);
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ChannelPool evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(unit.toMillis(idleTimeout) / 2, 1);
+        evictor.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checked on idle connections before they are handed out or kept.
+     * Connections that fail it are closed. Defaults to isOpen().
+     */
+    public void setHealthCheck(Predicate<FutureSocketChannel> healthCheck) {
+        this.healthCheck = healthCheck;
+    }
+
+    public CompletableFuture<FutureSocketChannel> acquire(SocketAddress address) {
+        if (closed) {
+            CompletableFuture<FutureSocketChannel> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Pool is closed"));
+            return failed;
+        }
+        Host host = hosts.computeIfAbsent(address, Host::new);
+        if (host.waiters.isEmpty()) {
+            FutureSocketChannel channel = host.pollIdle();
+            if (channel != null) {
+                return CompletableFuture.completedFuture(channel);
+            }
+            if (host.reserve()) {
+                return host.connect();
+            }
+        }
+        CompletableFuture<FutureSocketChannel> waiter = new CompletableFuture<>();
+        host.waiters.offer(waiter);
+        host.dispatch();
+        return waiter;
+    }
+
+    /**
+     * Give back a connection acquired for the address so it can be reused.
+     */
+    public void release(SocketAddress address, FutureSocketChannel channel) {
+        Host host = hosts.get(address);
+        if (host == null) {
+            channel.close();
+            return;
+        }
+        if (closed || !healthCheck.test(channel)) {
+            host.discard(channel);
+            return;
+        }
+        host.idle.offerFirst(new Idle(channel));
+        if (host.idleCount.incrementAndGet() > maxIdle) {
+            Idle oldest = host.idle.pollLast();
+            if (oldest != null) {
+                host.idleCount.decrementAndGet();
+                host.discard(oldest.channel);
+            }
+        }
+        host.dispatch();
+    }
+
+    /**
+     * Close a connection acquired for the address that shouldn't be reused,
+     * freeing its slot for a new connection.
+     */
+    public void discard(SocketAddress address, FutureSocketChannel channel) {
+        Host host = hosts.get(address);
+        if (host == null) {
+            channel.close();
+        } else {
+            host.discard(channel);
+        }
+    }
+
+    public int getIdleConnections(SocketAddress address) {
+        Host host = hosts.get(address);
+        return host == null ? 0 : host.idleCount.get();
+    }
+
+    public int getOpenConnections(SocketAddress address) {
+        Host host = hosts.get(address);
+        return host == null ? 0 : host.open.get();
+    }
+
+    /**
+     * Close every idle connection and fail waiting acquires. Connections
+     * that are checked out are closed when they are released.
+     */
+    public void close() {
+        closed = true;
+        evictor.shutdown();
+        for (Host host : hosts.values()) {
+            Idle idle;
+            while ((idle = host.idle.pollFirst()) != null) {
+                host.idleCount.decrementAndGet();
+                host.discard(idle.channel);
+            }
+            CompletableFuture<FutureSocketChannel> waiter;
+            while ((waiter = host.waiters.poll()) != null) {
+                waiter.completeExceptionally(new IllegalStateException("Pool is closed"));
+            }
+        }
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        for (Host host : hosts.values()) {
+            Idle oldest;
+            while (host.idleCount.get() > minIdle && (oldest = host.idle.pollLast()) != null) {
+                if (now - oldest.since < idleTimeout && healthCheck.test(oldest.channel)) {
+                    host.idle.offerLast(oldest);
+                    break;
+                }
+                host.idleCount.decrementAndGet();
+                host.discard(oldest.channel);
+            }
+            while (host.idleCount.get() + host.connecting.get() < minIdle && host.reserve()) {
+                host.connecting.incrementAndGet();
+                host.connect().whenComplete((channel, th) -> {
+                    if (th == null) {
+                        release(host.address, channel);
+                    }
+                    host.connecting.decrementAndGet();
+                });
+            }
+        }
+    }
+
+    private static class Idle {
+        final FutureSocketChannel channel;
+        final long since = System.nanoTime();
+
+        Idle(FutureSocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private class Host {
+        final SocketAddress address;
+        final ConcurrentLinkedDeque<Idle> idle = new ConcurrentLinkedDeque<>();
+        final ConcurrentLinkedQueue<CompletableFuture<FutureSocketChannel>> waiters = new ConcurrentLinkedQueue<>();
+        final AtomicInteger idleCount = new AtomicInteger();
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicInteger connecting = new AtomicInteger();
+
+        Host(SocketAddress address) {
+            this.address = address;
+        }
+
+        FutureSocketChannel pollIdle() {
+            Idle next;
+            while ((next = idle.pollFirst()) != null) {
+                idleCount.decrementAndGet();
+                if (healthCheck.test(next.channel)) {
+                    return next.channel;
+                }
+                discard(next.channel);
+            }
+            return null;
+        }
+
+        boolean reserve() {
+            int current;
+            while ((current = open.get()) < maxConnections) {
+                if (open.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        CompletableFuture<FutureSocketChannel> connect() {
+            CompletableFuture<FutureSocketChannel> connector = new CompletableFuture<>();
+            try {
+                FutureSocketChannel channel = group == null ? FutureSocketChannel.open() : FutureSocketChannel.open(group);
+                channel.connect(address).whenComplete((v, th) -> {
+                    if (th == null) {
+                        connector.complete(channel);
+                    } else {
+                        discard(channel);
+                        connector.completeExceptionally(th);
+                    }
+                });
+            } catch (IOException e) {
+                open.decrementAndGet();
+                connector.completeExceptionally(e);
+                dispatch();
+            }
+            return connector;
+        }
+
+        void discard(FutureSocketChannel channel) {
+            channel.close();
+            open.decrementAndGet();
+            dispatch();
+        }
+
+        /**
+         * Hand idle connections or free connection slots to waiters in the
+         * order they arrived. Called after anything that could unblock them.
+         */
+        void dispatch() {
+            CompletableFuture<FutureSocketChannel> waiter;
+            while (!closed && waiters.peek() != null) {
+                FutureSocketChannel channel = pollIdle();
+                if (channel != null) {
+                    while ((waiter = waiters.poll()) != null && !waiter.complete(channel)) ;
+                    if (waiter == null) {
+                        release(address, channel);
+                        return;
+                    }
+                } else if (reserve()) {
+                    if ((waiter = waiters.poll()) == null) {
+                        open.decrementAndGet();
+                        return;
+                    }
+                    CompletableFuture<FutureSocketChannel> connected = waiter;
+                    connect().whenComplete((c, th) -> {
+                        if (th != null) {
+                            connected.completeExceptionally(th);
+                        } else if (!connected.complete(c)) {
+                            release(address, c);
+                        }
+                    });
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+}
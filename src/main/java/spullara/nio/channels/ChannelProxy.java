@@ -0,0 +1,191 @@
+package spullara.nio.channels;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pumps bytes both ways between two connected channels, like a client
+ * connection and its upstream. Each direction has one direct buffer
+ * leased from the pool and either reads into it or writes it out, never
+ * both, so a slow writer stops reading from the other side. Bytes go from
+ * the socket to the direct buffer and back out without being copied onto
+ * the heap.
+ *
+ * When one side ends its stream the proxy half closes the other and keeps
+ * pumping the opposite direction. Both channels are closed once both
+ * directions are done or either fails. The proxy does its own raw reads
+ * and writes, so nothing else may read from or write to the channels.
+ */
+public class ChannelProxy {
+
+    private final FutureSocketChannel downstream;
+    private final FutureSocketChannel upstream;
+    private final Pump up;
+    private final Pump down;
+    private final AtomicInteger running = new AtomicInteger(2);
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    public ChannelProxy(FutureSocketChannel downstream, FutureSocketChannel upstream) {
+        this.downstream = downstream;
+        this.upstream = upstream;
+        up = new Pump(downstream, upstream);
+        down = new Pump(upstream, downstream);
+    }
+
+    /**
+     * Connect to the upstream address and start proxying the downstream
+     * channel to it.
+     */
+    public static CompletableFuture<ChannelProxy> connect(FutureSocketChannel downstream, SocketAddress upstreamAddress) {
+        CompletableFuture<ChannelProxy> connector = new CompletableFuture<>();
+        try {
+            FutureSocketChannel upstream = FutureSocketChannel.open();
+            upstream.connect(upstreamAddress).whenComplete((v, th) -> {
+                if (th == null) {
+                    ChannelProxy proxy = new ChannelProxy(downstream, upstream);
+                    proxy.start();
+                    connector.complete(proxy);
+                } else {
+                    upstream.close();
+                    downstream.close();
+                    connector.completeExceptionally(th);
+                }
+            });
+        } catch (IOException e) {
+            downstream.close();
+            connector.completeExceptionally(e);
+        }
+        return connector;
+    }
+
+    /**
+     * Start pumping, returning a future that completes once both
+     * directions are done and both channels are closed. Nagle's algorithm
+     * is turned off on both channels since whatever is read is already
+     * forwarded as a single write.
+     */
+    public CompletableFuture<Void> start() {
+        try {
+            downstream.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            upstream.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            finished(e);
+            return done;
+        }
+        up.read();
+        down.read();
+        return done;
+    }
+
+    public CompletableFuture<Void> doneFuture() {
+        return done;
+    }
+
+    /**
+     * Bytes sent from downstream to upstream so far.
+     */
+    public long getBytesUp() {
+        return up.bytes;
+    }
+
+    /**
+     * Bytes sent from upstream to downstream so far.
+     */
+    public long getBytesDown() {
+        return down.bytes;
+    }
+
+    public void close() {
+        downstream.close();
+        upstream.close();
+        done.complete(null);
+    }
+
+    private void finished(Throwable th) {
+        if (th != null) {
+            downstream.close();
+            upstream.close();
+            done.completeExceptionally(th);
+        } else if (running.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    /**
+     * One direction. The same handler is used for its reads and writes,
+     * told apart by the attachment.
+     */
+    private class Pump implements CompletionHandler<Integer, Boolean> {
+        private final FutureSocketChannel from;
+        private final FutureSocketChannel to;
+        private ByteBuffer buffer;
+        private volatile long bytes;
+
+        Pump(FutureSocketChannel from, FutureSocketChannel to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        void read() {
+            if (buffer == null) {
+                buffer = from.getBufferPool().lease(from.getReadBufferSize());
+            }
+            buffer.clear();
+            try {
+                from.read(buffer, Boolean.FALSE, this);
+            } catch (RuntimeException e) {
+                failed(e, Boolean.FALSE);
+            }
+        }
+
+        @Override
+        public void completed(Integer length, Boolean writing) {
+            if (writing) {
+                bytes += length;
+                if (buffer.hasRemaining()) {
+                    write();
+                } else {
+                    read();
+                }
+            } else if (length < 0) {
+                release();
+                try {
+                    to.shutdownOutput();
+                    finished(null);
+                } catch (IOException e) {
+                    finished(e);
+                }
+            } else {
+                buffer.flip();
+                write();
+            }
+        }
+
+        private void write() {
+            try {
+                to.write(buffer, Boolean.TRUE, this);
+            } catch (RuntimeException e) {
+                failed(e, Boolean.TRUE);
+            }
+        }
+
+        @Override
+        public void failed(Throwable th, Boolean writing) {
+            release();
+            finished(th);
+        }
+
+        private void release() {
+            ByteBuffer buffer = this.buffer;
+            if (buffer != null) {
+                this.buffer = null;
+                from.getBufferPool().release(buffer);
+            }
+        }
+    }
+}
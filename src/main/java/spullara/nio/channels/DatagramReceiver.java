@@ -0,0 +1,24 @@
+package spullara.nio.channels;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Called on the selector thread with each datagram a FutureDatagramChannel
+ * receives. Must not block.
+ */
+public interface DatagramReceiver {
+
+    /**
+     * A datagram in a buffer leased from the channel's pool, flipped and
+     * ready to be consumed. It must be given back with release().
+     */
+    void received(ByteBuffer datagram, SocketAddress sender);
+
+    /**
+     * Called after each batch of datagrams drained in a single wakeup, for
+     * receivers that want to flush work per batch rather than per datagram.
+     */
+    default void batchComplete() {
+    }
+}
@@ -0,0 +1,124 @@
+package spullara.nio.channels;
+
+import spullara.util.Lazy;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static spullara.util.Lazy.lazy;
+
+/**
+ * A single thread selecting over datagram channels, since the JDK has no
+ * asynchronous datagram channel. Registration and interest changes are
+ * handed to the thread as tasks. If selecting fails the thread stops and
+ * everything waiting on it fails. Exceptions thrown by tasks or channels
+ * go to the thread's uncaught exception handler.
+ */
+class DatagramSelector {
+
+    private static final Lazy<DatagramSelector> SHARED = lazy(DatagramSelector::new);
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile IOException failure;
+
+    private DatagramSelector() throws IOException {
+        selector = Selector.open();
+        Thread thread = new Thread(this::run, "DatagramSelector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static DatagramSelector getShared() {
+        return SHARED.get();
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    /**
+     * Why the selector stopped, or null while it is running.
+     */
+    IOException getFailure() {
+        return failure;
+    }
+
+    void execute(Runnable task) {
+        tasks.offer(task);
+        if (failure == null) {
+            selector.wakeup();
+        } else {
+            // Nothing else will run it, and it fails whatever it waits for
+            synchronized (this) {
+                runTasks();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                selector.select();
+                runTasks();
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    FutureDatagramChannel channel = (FutureDatagramChannel) key.attachment();
+                    try {
+                        channel.ready(key);
+                    } catch (Throwable th) {
+                        // Don't leave whoever is waiting on the channel hanging
+                        channel.failed(new IOException("Datagram channel failed", th));
+                        uncaught(th);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            shutdown(e);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable th) {
+                uncaught(th);
+            }
+        }
+    }
+
+    private static void uncaught(Throwable th) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, th);
+    }
+
+    /**
+     * The selector can't be used any more, so fail every channel waiting
+     * on it and the tasks still queued, which fail theirs, rather than
+     * leaving them to hang. Tasks queued later are run by whoever queues
+     * them.
+     */
+    private synchronized void shutdown(IOException e) {
+        failure = e;
+        for (SelectionKey key : selector.keys()) {
+            try {
+                ((FutureDatagramChannel) key.attachment()).failed(e);
+            } catch (Throwable th) {
+                uncaught(th);
+            }
+        }
+        runTasks();
+        try {
+            selector.close();
+        } catch (IOException ce) {
+            // Ignore
+        }
+    }
+}
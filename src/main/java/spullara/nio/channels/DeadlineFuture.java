@@ -0,0 +1,49 @@
+package spullara.nio.channels;
+
+import spullara.util.concurrent.TimerWheel;
+
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Future for a channel operation with a deadline. If it isn't completed in
+ * time it fails with an InterruptedByTimeoutException and closes the
+ * channel, since a timed out operation leaves the channel in an unknown
+ * state. Completing or cancelling it cancels the timeout.
+ */
+class DeadlineFuture<V> extends CompletableFuture<V> implements Runnable {
+
+    private final FutureSocketChannel channel;
+    private final TimerWheel.Timeout timeout;
+
+    DeadlineFuture(FutureSocketChannel channel, TimerWheel timer, long timeoutNanos) {
+        this.channel = channel;
+        this.timeout = timer.schedule(this, timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void run() {
+        if (super.completeExceptionally(new InterruptedByTimeoutException())) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public boolean complete(V value) {
+        timeout.cancel();
+        return super.complete(value);
+    }
+
+    @Override
+    public boolean completeExceptionally(Throwable th) {
+        timeout.cancel();
+        return super.completeExceptionally(th);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        timeout.cancel();
+        return super.cancel(mayInterruptIfRunning);
+    }
+}
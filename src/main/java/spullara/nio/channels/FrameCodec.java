@@ -0,0 +1,24 @@
+package spullara.nio.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a byte stream into frames and frames payloads for writing.
+ * Decoders may keep scanning state between calls, so an instance must
+ * only be used for a single stream.
+ */
+public interface FrameCodec {
+
+    /**
+     * Decode the next frame from the unread bytes of the buffer, returning
+     * it as a slice of the buffer and advancing the position past it.
+     * Returns null if the buffer doesn't hold a complete frame yet.
+     */
+    ByteBuffer decode(ByteBuffer in) throws IOException;
+
+    /**
+     * The buffers to write, in order, to send the payload as a frame.
+     */
+    ByteBuffer[] encode(ByteBuffer payload);
+}
@@ -0,0 +1,196 @@
+package spullara.nio.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Common frame codecs
+ */
+public class FrameCodecs {
+
+    /**
+     * Frames prefixed with their length as a 4 byte big endian int.
+     */
+    public static FrameCodec fixedLength(int maxFrameLength) {
+        return new FixedLengthCodec(maxFrameLength);
+    }
+
+    /**
+     * Frames prefixed with their length as an unsigned base 128 varint, the
+     * same encoding protobuf uses for delimited messages.
+     */
+    public static FrameCodec varint(int maxFrameLength) {
+        return new VarintCodec(maxFrameLength);
+    }
+
+    /**
+     * Frames terminated by \n, with a \r before it stripped as well.
+     * Frames are written with a \n terminator.
+     */
+    public static FrameCodec newline(int maxFrameLength) {
+        return new DelimiterCodec(maxFrameLength, false);
+    }
+
+    /**
+     * Frames terminated by \r\n. A \n on its own is part of the frame.
+     */
+    public static FrameCodec crlf(int maxFrameLength) {
+        return new DelimiterCodec(maxFrameLength, true);
+    }
+
+    private static ByteBuffer slice(ByteBuffer in, int start, int length) {
+        ByteBuffer frame = in.duplicate();
+        frame.position(start).limit(start + length);
+        return frame.slice();
+    }
+
+    private static IOException tooLong(long length, int max) {
+        return new IOException("Frame length " + length + " exceeds maximum of " + max);
+    }
+
+    private static class FixedLengthCodec implements FrameCodec {
+        private final int max;
+
+        FixedLengthCodec(int max) {
+            this.max = max;
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer in) throws IOException {
+            if (in.remaining() < 4) return null;
+            int position = in.position();
+            int length = in.getInt(position);
+            if (length < 0 || length > max) {
+                throw tooLong(length & 0xFFFFFFFFL, max);
+            }
+            if (in.remaining() < 4 + length) return null;
+            in.position(position + 4 + length);
+            return slice(in, position + 4, length);
+        }
+
+        @Override
+        public ByteBuffer[] encode(ByteBuffer payload) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            header.putInt(0, payload.remaining());
+            return new ByteBuffer[]{header, payload};
+        }
+    }
+
+    private static class VarintCodec implements FrameCodec {
+        private final int max;
+
+        VarintCodec(int max) {
+            this.max = max;
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer in) throws IOException {
+            int position = in.position();
+            int limit = in.limit();
+            long length = 0;
+            int i = position;
+            for (int shift = 0; ; shift += 7) {
+                if (i == limit) return null;
+                if (shift > 28) {
+                    throw new IOException("Malformed varint frame length");
+                }
+                byte b = in.get(i++);
+                length |= (long) (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            if (length > max) {
+                throw tooLong(length, max);
+            }
+            if (limit - i < length) return null;
+            in.position(i + (int) length);
+            return slice(in, i, (int) length);
+        }
+
+        @Override
+        public ByteBuffer[] encode(ByteBuffer payload) {
+            ByteBuffer header = ByteBuffer.allocate(5);
+            int length = payload.remaining();
+            while ((length & ~0x7F) != 0) {
+                header.put((byte) ((length & 0x7F) | 0x80));
+                length >>>= 7;
+            }
+            header.put((byte) length).flip();
+            return new ByteBuffer[]{header, payload};
+        }
+    }
+
+    private static class DelimiterCodec implements FrameCodec {
+        private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+        private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+        private static final ByteBuffer LF = ByteBuffer.wrap(new byte[]{'\n'}).asReadOnlyBuffer();
+        private static final ByteBuffer CRLF = ByteBuffer.wrap(new byte[]{'\r', '\n'}).asReadOnlyBuffer();
+
+        private final int max;
+        private final boolean crlf;
+
+        // Bytes past the position already known not to end a frame
+        private int scanned;
+
+        DelimiterCodec(int max, boolean crlf) {
+            this.max = max;
+            this.crlf = crlf;
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer in) throws IOException {
+            int position = in.position();
+            int limit = in.limit();
+            int i = position + scanned;
+            while (true) {
+                int newline = indexOfNewline(in, i, limit);
+                if (newline == -1) {
+                    scanned = limit - position;
+                    if (scanned > max + 1) {
+                        throw tooLong(scanned, max);
+                    }
+                    return null;
+                }
+                int end = newline;
+                if (end > position && in.get(end - 1) == '\r') {
+                    end--;
+                } else if (crlf) {
+                    i = newline + 1;
+                    continue;
+                }
+                if (end - position > max) {
+                    throw tooLong(end - position, max);
+                }
+                scanned = 0;
+                in.position(newline + 1);
+                return slice(in, position, end - position);
+            }
+        }
+
+        /**
+         * Checks 8 bytes at a time using the SWAR zero byte test on the
+         * word xor'd with newlines. This form of the test is exact, so the
+         * first flagged byte in memory order is the first match.
+         */
+        private static int indexOfNewline(ByteBuffer in, int from, int limit) {
+            boolean bigEndian = in.order() == ByteOrder.BIG_ENDIAN;
+            int i = from;
+            for (; i + 8 <= limit; i += 8) {
+                long word = in.getLong(i) ^ NEWLINES;
+                long matches = ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+                if (matches != 0) {
+                    return i + ((bigEndian ? Long.numberOfLeadingZeros(matches) : Long.numberOfTrailingZeros(matches)) >>> 3);
+                }
+            }
+            for (; i < limit; i++) {
+                if (in.get(i) == '\n') return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public ByteBuffer[] encode(ByteBuffer payload) {
+            return new ByteBuffer[]{payload, (crlf ? CRLF : LF).duplicate()};
+        }
+    }
+}
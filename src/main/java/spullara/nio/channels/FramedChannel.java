@@ -0,0 +1,154 @@
+package spullara.nio.channels;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadPendingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads and writes whole frames over a FutureSocketChannel. Reads go into
+ * a buffer leased from the channel's pool and frames are returned as
+ * slices of it without copying, so a frame is only valid until the next
+ * call to read(). Only one read may be outstanding at a time.
+ */
+public class FramedChannel implements CompletionHandler<Integer, CompletableFuture<ByteBuffer>> {
+
+    private static final int IDLE = 0;
+    private static final int READING = 1;
+    private static final int CLOSED = 2;
+
+    private final FutureSocketChannel channel;
+    private final FrameCodec codec;
+    // Whoever moves it out of READING owns the read buffer
+    private final AtomicInteger state = new AtomicInteger();
+
+    // Unread bytes are between the position and the limit
+    private ByteBuffer in;
+
+    public FramedChannel(FutureSocketChannel channel, FrameCodec codec) {
+        this.channel = channel;
+        this.codec = codec;
+        in = channel.getBufferPool().lease(channel.getReadBufferSize());
+        in.flip();
+    }
+
+    /**
+     * Read the next frame. Completes with null if the stream ends cleanly
+     * between frames and with an EOFException if it ends inside one.
+     */
+    public CompletableFuture<ByteBuffer> read() {
+        CompletableFuture<ByteBuffer> reader = new CompletableFuture<>();
+        if (!state.compareAndSet(IDLE, READING)) {
+            if (state.get() == CLOSED) {
+                reader.completeExceptionally(new ClosedChannelException());
+                return reader;
+            }
+            throw new ReadPendingException();
+        }
+        decode(reader);
+        return reader;
+    }
+
+    /**
+     * Write the payload as a single frame.
+     */
+    public CompletableFuture<Long> write(ByteBuffer payload) {
+        return channel.write(codec.encode(payload));
+    }
+
+    public FutureSocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Close the channel and give the read buffer back to the pool, once any
+     * pending read is done with it. Frames already read are invalid.
+     */
+    public void close() {
+        channel.close();
+        int current;
+        while ((current = state.get()) != CLOSED) {
+            if (state.compareAndSet(current, CLOSED)) {
+                if (current == IDLE) {
+                    release();
+                }
+                return;
+            }
+        }
+    }
+
+    private void release() {
+        ByteBuffer in = this.in;
+        this.in = null;
+        channel.release(in);
+    }
+
+    /**
+     * Called by a read that is done with the buffer. Returns false, having
+     * released the buffer, if the channel was closed while it was using it.
+     */
+    private boolean finish() {
+        if (state.compareAndSet(READING, IDLE)) {
+            return true;
+        }
+        release();
+        return false;
+    }
+
+    private void decode(CompletableFuture<ByteBuffer> reader) {
+        try {
+            ByteBuffer frame = codec.decode(in);
+            if (frame == null) {
+                fill(reader);
+            } else if (finish()) {
+                reader.complete(frame);
+            } else {
+                reader.completeExceptionally(new AsynchronousCloseException());
+            }
+        } catch (IOException | RuntimeException e) {
+            finish();
+            reader.completeExceptionally(e);
+        }
+    }
+
+    private void fill(CompletableFuture<ByteBuffer> reader) {
+        in.compact();
+        if (!in.hasRemaining()) {
+            ByteBuffer larger = channel.getBufferPool().lease(in.capacity() * 2);
+            in.flip();
+            larger.put(in);
+            channel.release(in);
+            in = larger;
+        }
+        channel.read(in, reader, this);
+    }
+
+    @Override
+    public void completed(Integer length, CompletableFuture<ByteBuffer> reader) {
+        in.flip();
+        if (length < 0) {
+            boolean partial = in.hasRemaining();
+            if (!finish()) {
+                reader.completeExceptionally(new AsynchronousCloseException());
+            } else if (partial) {
+                reader.completeExceptionally(new EOFException("Stream ended inside a frame"));
+            } else {
+                reader.complete(null);
+            }
+            return;
+        }
+        decode(reader);
+    }
+
+    @Override
+    public void failed(Throwable th, CompletableFuture<ByteBuffer> reader) {
+        in.flip();
+        finish();
+        reader.completeExceptionally(th);
+    }
+}
@@ -0,0 +1,139 @@
+package spullara.nio.channels;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of event loops, each a single thread with its own channel
+ * group. The loop thread waits for I/O events itself and runs completions
+ * as it finds them, rather than an internal poller handing each one over.
+ * Channels are assigned to loops round robin and all of their completions
+ * run on their loop's thread, as do tasks given to
+ * FutureSocketChannel.getExecutor(), so a connection's work never hops
+ * between threads.
+ *
+ * Channels accepted by a server stay on the server's loop since the JDK
+ * binds an accepted channel to the group of its server. Servers with
+ * many connections that need more than one loop should bind a server
+ * channel per port on separate loops.
+ */
+public class FutureChannelGroup {
+
+    private final Loop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile ChannelMetrics metrics;
+
+    /**
+     * One loop per available processor.
+     */
+    public FutureChannelGroup() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public FutureChannelGroup(int loopCount) throws IOException {
+        if (loopCount <= 0) {
+            throw new IllegalArgumentException("Invalid loop count: " + loopCount);
+        }
+        loops = new Loop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new Loop("FutureChannelGroup-" + i);
+        }
+    }
+
+    public FutureSocketChannel open() throws IOException {
+        Loop loop = next();
+        FutureSocketChannel fsc = new FutureSocketChannel(AsynchronousSocketChannel.open(loop.group), loop.executor);
+        fsc.setMetrics(metrics);
+        return fsc;
+    }
+
+    public FutureServerSocketChannel openServer() throws IOException {
+        Loop loop = next();
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel(AsynchronousServerSocketChannel.open(loop.group), loop.executor);
+        fssc.setMetrics(metrics);
+        return fssc;
+    }
+
+    public ChannelMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Metrics given to channels and servers opened from now on, none by
+     * default.
+     */
+    public void setMetrics(ChannelMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Executor for the next loop, for work that isn't tied to a channel.
+     */
+    public Executor nextExecutor() {
+        return next().executor;
+    }
+
+    public int getLoopCount() {
+        return loops.length;
+    }
+
+    /**
+     * Stop accepting new channels. Loops exit once their channels are closed.
+     */
+    public void shutdown() {
+        for (Loop loop : loops) {
+            loop.group.shutdown();
+        }
+    }
+
+    /**
+     * Close every channel and stop the loops.
+     */
+    public void shutdownNow() throws IOException {
+        for (Loop loop : loops) {
+            loop.group.shutdownNow();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Loop loop : loops) {
+            if (!loop.group.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Loop next() {
+        return loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    private static class Loop {
+        final Executor executor;
+        final AsynchronousChannelGroup group;
+
+        Loop(String name) throws IOException {
+            // A group made with withThreadPool() starts its own poller thread
+            // that hands every completion to the pool. The threads of a fixed
+            // pool poll themselves.
+            group = AsynchronousChannelGroup.withFixedThreadPool(1, r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            // The JDK's groups are executors that queue tasks for their own
+            // threads, waking the poller, which is the only way onto the loop
+            if (!(group instanceof Executor)) {
+                group.shutdownNow();
+                throw new IOException("Channel group can't run tasks: " + group.getClass().getName());
+            }
+            executor = (Executor) group;
+        }
+    }
+}
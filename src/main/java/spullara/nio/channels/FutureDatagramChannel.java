@@ -0,0 +1,284 @@
+package spullara.nio.channels;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * UDP with futures for sends and a batch receive that drains every
+ * datagram ready on each wakeup into buffers leased from the pool, with
+ * no allocation per datagram. The channel is non-blocking and selected
+ * on a shared selector thread, which is also where receivers are called.
+ */
+public class FutureDatagramChannel {
+
+    private final DatagramChannel dc;
+    private final DatagramSelector selector;
+    private final ConcurrentLinkedQueue<PendingSend> sends = new ConcurrentLinkedQueue<>();
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private BufferPool bufferPool = BufferPool.getDefault();
+    private int maxDatagramSize = 8192;
+
+    // Owned by the selector thread
+    private SelectionKey key;
+    private DatagramReceiver receiver;
+    private CompletableFuture<Void> receiving;
+    private int maxBatch;
+
+    public FutureDatagramChannel() throws IOException {
+        this(DatagramChannel.open());
+    }
+
+    protected FutureDatagramChannel(DatagramChannel dc) throws IOException {
+        this.dc = dc;
+        dc.configureBlocking(false);
+        selector = DatagramSelector.getShared();
+    }
+
+    public FutureDatagramChannel bind(SocketAddress sa) throws IOException {
+        dc.bind(sa);
+        return this;
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) dc.getLocalAddress();
+    }
+
+    /**
+     * Size of the socket's receive buffer, which is what absorbs bursts
+     * between wakeups.
+     */
+    public void setReceiveBufferSize(int size) throws IOException {
+        dc.setOption(StandardSocketOptions.SO_RCVBUF, size);
+    }
+
+    /**
+     * Send the datagram, completing with the number of bytes sent. Sends
+     * that can't go out immediately wait for the socket to be writable.
+     */
+    public CompletableFuture<Integer> send(ByteBuffer buffer, SocketAddress target) {
+        CompletableFuture<Integer> sender = new CompletableFuture<>();
+        if (sends.isEmpty()) {
+            int length = buffer.remaining();
+            try {
+                int sent = dc.send(buffer, target);
+                if (sent > 0 || length == 0) {
+                    sender.complete(sent);
+                    return sender;
+                }
+            } catch (IOException e) {
+                sender.completeExceptionally(e);
+                return sender;
+            }
+        }
+        sends.offer(new PendingSend(buffer, target, sender));
+        selector.execute(() -> interest(SelectionKey.OP_WRITE, true));
+        return sender;
+    }
+
+    /**
+     * Start calling the receiver with every datagram that arrives, draining
+     * up to maxBatch datagrams per wakeup. Datagrams longer than the max
+     * datagram size are truncated. The returned future completes when the
+     * channel is closed and fails if receiving does. Cancelling it stops
+     * receiving.
+     */
+    public CompletableFuture<Void> receive(DatagramReceiver receiver, int maxBatch) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("Invalid batch size: " + maxBatch);
+        }
+        CompletableFuture<Void> receiving = new CompletableFuture<>();
+        selector.execute(() -> {
+            if (this.receiving != null && !this.receiving.isDone()) {
+                receiving.completeExceptionally(new IllegalStateException("Already receiving"));
+                return;
+            }
+            this.receiver = receiver;
+            this.receiving = receiving;
+            this.maxBatch = maxBatch;
+            interest(SelectionKey.OP_READ, true);
+        });
+        receiving.whenComplete((v, th) -> selector.execute(() -> {
+            if (this.receiving == receiving) {
+                this.receiver = null;
+                interest(SelectionKey.OP_READ, false);
+            }
+        }));
+        return receiving;
+    }
+
+    /**
+     * Give back a buffer passed to a receiver.
+     */
+    public void release(ByteBuffer buffer) {
+        bufferPool.release(buffer);
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public int getMaxDatagramSize() {
+        return maxDatagramSize;
+    }
+
+    public void setMaxDatagramSize(int maxDatagramSize) {
+        this.maxDatagramSize = maxDatagramSize;
+    }
+
+    public void close() {
+        try {
+            dc.close();
+        } catch (IOException e) {
+            // Ignore
+        } finally {
+            closed.complete(null);
+            PendingSend send;
+            while ((send = sends.poll()) != null) {
+                send.sender.completeExceptionally(new ClosedChannelException());
+            }
+            selector.execute(() -> {
+                if (receiving != null) {
+                    receiving.complete(null);
+                }
+            });
+        }
+    }
+
+    public CompletableFuture<Void> closeFuture() {
+        return closed;
+    }
+
+    public boolean isOpen() {
+        return dc.isOpen();
+    }
+
+    /**
+     * Change interest on the selector thread, registering on first use.
+     */
+    private void interest(int op, boolean on) {
+        if (!dc.isOpen()) return;
+        IOException failure = selector.getFailure();
+        if (failure != null) {
+            failed(failure);
+            return;
+        }
+        try {
+            if (key == null) {
+                if (!on) return;
+                key = dc.register(selector.getSelector(), op, this);
+            } else if (on) {
+                key.interestOps(key.interestOps() | op);
+            } else {
+                key.interestOps(key.interestOps() & ~op);
+            }
+        } catch (IOException | CancelledKeyException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Called when the selector stops, failing everything still waiting.
+     */
+    void failed(IOException e) {
+        if (receiving != null) {
+            receiving.completeExceptionally(e);
+        }
+        PendingSend send;
+        while ((send = sends.poll()) != null) {
+            send.sender.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Called on the selector thread
+     */
+    void ready(SelectionKey key) {
+        if (!key.isValid()) return;
+        if (key.isReadable()) {
+            drain();
+        }
+        if (key.isValid() && key.isWritable()) {
+            flush();
+        }
+    }
+
+    private void drain() {
+        DatagramReceiver receiver = this.receiver;
+        if (receiver == null) return;
+        int received = 0;
+        ByteBuffer buffer = null;
+        try {
+            while (received < maxBatch) {
+                buffer = bufferPool.lease(maxDatagramSize);
+                if (maxDatagramSize < buffer.capacity()) {
+                    buffer.limit(maxDatagramSize);
+                }
+                SocketAddress sender = dc.receive(buffer);
+                if (sender == null) break;
+                buffer.flip();
+                ByteBuffer datagram = buffer;
+                buffer = null;
+                received++;
+                receiver.received(datagram, sender);
+            }
+            if (received > 0) {
+                receiver.batchComplete();
+            }
+        } catch (IOException | RuntimeException e) {
+            receiving.completeExceptionally(e);
+        } finally {
+            if (buffer != null) {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
+    private void flush() {
+        PendingSend send;
+        while ((send = sends.peek()) != null) {
+            try {
+                int length = send.buffer.remaining();
+                int sent = dc.send(send.buffer, send.target);
+                if (sent == 0 && length > 0) return;
+                send.sender.complete(sent);
+            } catch (IOException e) {
+                send.sender.completeExceptionally(e);
+            }
+            sends.poll();
+        }
+        interest(SelectionKey.OP_WRITE, false);
+        // A send may have been queued after the last check
+        if (!sends.isEmpty()) {
+            interest(SelectionKey.OP_WRITE, true);
+        }
+    }
+
+    private static class PendingSend {
+        final ByteBuffer buffer;
+        final SocketAddress target;
+        final CompletableFuture<Integer> sender;
+
+        PendingSend(ByteBuffer buffer, SocketAddress target, CompletableFuture<Integer> sender) {
+            this.buffer = buffer;
+            this.target = target;
+            this.sender = sender;
+        }
+    }
+
+    public static FutureDatagramChannel open() throws IOException {
+        return new FutureDatagramChannel(DatagramChannel.open());
+    }
+}
@@ -0,0 +1,211 @@
+package spullara.nio.channels;
+
+import spullara.util.Lazy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static spullara.nio.channels.FutureSocketChannel.completer;
+import static spullara.util.Lazy.lazy;
+
+/**
+ * Positional file reads and writes that complete futures. Blocking file
+ * I/O happens on the executor the channel was opened with, so giving
+ * files their own executor keeps disk waits off the threads running
+ * socket callbacks.
+ *
+ * Files that are mostly read can skip the executor entirely with
+ * mapped(), which maps the file on first use and returns slices of it.
+ */
+public class FutureFileChannel {
+
+    private final AsynchronousFileChannel afc;
+    private final Lazy<MappedByteBuffer> mapping;
+
+    protected FutureFileChannel(AsynchronousFileChannel afc, Path path) {
+        this.afc = afc;
+        mapping = lazy(() -> {
+            try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+                return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> read(ByteBuffer buffer, long position) {
+        CompletableFuture<Integer> reader = new CompletableFuture<>();
+        afc.read(buffer, position, reader, completer());
+        return reader;
+    }
+
+    /**
+     * Read until the buffer is full or the end of the file, completing with
+     * the number of bytes read.
+     */
+    public CompletableFuture<Integer> readFully(ByteBuffer buffer, long position) {
+        CompletableFuture<Integer> reader = new CompletableFuture<>();
+        new Transfer(buffer, position, false).run(reader);
+        return reader;
+    }
+
+    /**
+     * Start every read of the batch at once, completing with the number
+     * of bytes read into each buffer once they have all finished. Each read
+     * is a single positional read, so buffers may be left short at the end
+     * of the file, and a read starting past the end gives -1.
+     */
+    public CompletableFuture<int[]> read(ByteBuffer[] buffers, long[] positions) {
+        if (buffers.length != positions.length) {
+            throw new IllegalArgumentException("Buffers and positions differ in length");
+        }
+        Batch batch = new Batch(buffers.length);
+        if (buffers.length == 0) {
+            batch.complete(batch.lengths);
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            afc.read(buffers[i], positions[i], i, batch);
+        }
+        return batch;
+    }
+
+    public CompletableFuture<Integer> write(ByteBuffer buffer, long position) {
+        CompletableFuture<Integer> writer = new CompletableFuture<>();
+        afc.write(buffer, position, writer, completer());
+        return writer;
+    }
+
+    /**
+     * Write the whole buffer, completing with the number of bytes written.
+     */
+    public CompletableFuture<Integer> writeFully(ByteBuffer buffer, long position) {
+        CompletableFuture<Integer> writer = new CompletableFuture<>();
+        new Transfer(buffer, position, true).run(writer);
+        return writer;
+    }
+
+    /**
+     * A read-only view of part of the file, without copying or touching
+     * the executor. The file is mapped in full on first use, so later
+     * changes to its length are not seen and it must be under 2GB. Reading
+     * the view may block on page faults if the file isn't cached.
+     */
+    public ByteBuffer mapped(long position, int length) throws IOException {
+        MappedByteBuffer mapped;
+        try {
+            mapped = mapping.get();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        if (position < 0 || length < 0 || position + length > mapped.capacity()) {
+            throw new IndexOutOfBoundsException("Range " + position + "+" + length + " outside of mapped length " + mapped.capacity());
+        }
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) position).limit((int) position + length);
+        return view.slice();
+    }
+
+    public long size() throws IOException {
+        return afc.size();
+    }
+
+    public void force(boolean metaData) throws IOException {
+        afc.force(metaData);
+    }
+
+    public boolean isOpen() {
+        return afc.isOpen();
+    }
+
+    public void close() {
+        try {
+            afc.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private class Transfer implements CompletionHandler<Integer, CompletableFuture<Integer>> {
+        private final ByteBuffer buffer;
+        private final long start;
+        private final boolean write;
+        private int total;
+
+        Transfer(ByteBuffer buffer, long start, boolean write) {
+            this.buffer = buffer;
+            this.start = start;
+            this.write = write;
+        }
+
+        void run(CompletableFuture<Integer> future) {
+            if (!buffer.hasRemaining()) {
+                future.complete(total);
+            } else if (write) {
+                afc.write(buffer, start + total, future, this);
+            } else {
+                afc.read(buffer, start + total, future, this);
+            }
+        }
+
+        public void completed(Integer length, CompletableFuture<Integer> future) {
+            if (length < 0) {
+                future.complete(total);
+            } else {
+                total += length;
+                run(future);
+            }
+        }
+
+        public void failed(Throwable th, CompletableFuture<Integer> future) {
+            future.completeExceptionally(th);
+        }
+    }
+
+    private static class Batch extends CompletableFuture<int[]> implements CompletionHandler<Integer, Integer> {
+        final int[] lengths;
+        final AtomicInteger remaining;
+
+        Batch(int size) {
+            lengths = new int[size];
+            remaining = new AtomicInteger(size);
+        }
+
+        public void completed(Integer length, Integer index) {
+            lengths[index] = length;
+            // The decrement publishes the length to whoever sees zero
+            if (remaining.decrementAndGet() == 0) {
+                complete(lengths);
+            }
+        }
+
+        public void failed(Throwable th, Integer index) {
+            completeExceptionally(th);
+        }
+    }
+
+    public static FutureFileChannel open(Path path, OpenOption... options) throws IOException {
+        return new FutureFileChannel(AsynchronousFileChannel.open(path, options), path);
+    }
+
+    /**
+     * @param executor runs the blocking file I/O and completions, null for the default pool
+     */
+    public static FutureFileChannel open(Path path, ExecutorService executor, OpenOption... options) throws IOException {
+        Set<OpenOption> set = new HashSet<>(Arrays.asList(options));
+        return new FutureFileChannel(AsynchronousFileChannel.open(path, set, executor), path);
+    }
+}
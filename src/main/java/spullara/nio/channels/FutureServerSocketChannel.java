@@ -1,5 +1,7 @@
 package spullara.nio.channels;
 
+import spullara.util.concurrent.TimerWheel;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
@@ -8,37 +10,175 @@ import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public class FutureServerSocketChannel {
 
     private AsynchronousServerSocketChannel assc;
+    private final Executor executor;
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private TimerWheel timer = TimerWheel.getShared();
+    private long readTimeout;
+    private long writeTimeout;
+    private long idleTimeout;
+    private ChannelMetrics metrics;
 
     public FutureServerSocketChannel() throws IOException {
-        this.assc = AsynchronousServerSocketChannel.open();
+        this(AsynchronousServerSocketChannel.open());
     }
 
     protected FutureServerSocketChannel(AsynchronousServerSocketChannel assc) throws IOException {
+        this(assc, null);
+    }
+
+    FutureServerSocketChannel(AsynchronousServerSocketChannel assc, Executor executor) {
         this.assc = assc;
+        this.executor = executor;
     }
 
     public FutureServerSocketChannel bind(SocketAddress sa) throws IOException {
-        return new FutureServerSocketChannel(assc.bind(sa));
+        FutureServerSocketChannel bound = new FutureServerSocketChannel(assc.bind(sa), executor);
+        bound.timer = timer;
+        bound.readTimeout = readTimeout;
+        bound.writeTimeout = writeTimeout;
+        bound.idleTimeout = idleTimeout;
+        bound.metrics = metrics;
+        return bound;
     }
 
     public CompletableFuture<FutureSocketChannel> accept() {
-        final CompletableFuture<FutureSocketChannel> acceptor = new CompletableFuture<>();
-        assc.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
-            public void completed(AsynchronousSocketChannel channel, Void v) {
-                acceptor.complete(new FutureSocketChannel(channel));
-            }
-
-            public void failed(Throwable th, Void v) {
-                acceptor.completeExceptionally(th);
-            }
-        });
+        CompletableFuture<FutureSocketChannel> acceptor = new CompletableFuture<>();
+        try {
+            accept(acceptor, this.acceptor);
+        } catch (RuntimeException e) {
+            acceptFailed();
+            throw e;
+        }
         return acceptor;
     }
 
+    /**
+     * Callers must follow up with accepted() or acceptFailed(), including
+     * when this throws, so pending accepts are counted correctly.
+     */
+    <A> void accept(A attachment, CompletionHandler<AsynchronousSocketChannel, ? super A> handler) {
+        if (metrics != null) {
+            metrics.acceptStarted();
+        }
+        assc.accept(attachment, handler);
+    }
+
+    void acceptFailed() {
+        if (metrics != null) {
+            metrics.acceptCompleted(false);
+        }
+    }
+
+    /**
+     * Publish accepted connections as subscribers ask for them, keeping at most
+     * maxConnections of them open. Accepting pauses at the limit, leaving new
+     * connections in the listen backlog.
+     */
+    public AcceptPublisher connections(int maxConnections) {
+        return new AcceptPublisher(this, maxConnections, false);
+    }
+
+    /**
+     * Like connections(int) except that connections arriving while at the
+     * limit are accepted and immediately closed instead of waiting.
+     */
+    public AcceptPublisher connections(int maxConnections, boolean shed) {
+        return new AcceptPublisher(this, maxConnections, shed);
+    }
+
+    /**
+     * Accepted channels start out with the timeouts configured on the server
+     * and share its executor.
+     */
+    FutureSocketChannel accepted(AsynchronousSocketChannel channel) {
+        FutureSocketChannel fsc = new FutureSocketChannel(channel, executor);
+        if (metrics != null) {
+            ChannelMetrics metrics = this.metrics;
+            metrics.acceptCompleted(true);
+            fsc.setMetrics(metrics);
+            fsc.closeFuture().thenRun(metrics::acceptedClosed);
+        }
+        fsc.setTimer(timer);
+        fsc.setReadTimeout(readTimeout, TimeUnit.NANOSECONDS);
+        fsc.setWriteTimeout(writeTimeout, TimeUnit.NANOSECONDS);
+        if (idleTimeout != 0) {
+            fsc.setIdleTimeout(idleTimeout, TimeUnit.NANOSECONDS);
+        }
+        return fsc;
+    }
+
+    /**
+     * Read timeout given to accepted channels.
+     */
+    public void setReadTimeout(long timeout, TimeUnit unit) {
+        readTimeout = unit.toNanos(timeout);
+    }
+
+    /**
+     * Write timeout given to accepted channels.
+     */
+    public void setWriteTimeout(long timeout, TimeUnit unit) {
+        writeTimeout = unit.toNanos(timeout);
+    }
+
+    /**
+     * Idle timeout given to accepted channels, so that connections that
+     * stop doing anything are reaped.
+     */
+    public void setIdleTimeout(long timeout, TimeUnit unit) {
+        idleTimeout = unit.toNanos(timeout);
+    }
+
+    public void setTimer(TimerWheel timer) {
+        this.timer = timer;
+    }
+
+    public ChannelMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Count accepts into the metrics and give them to accepted channels.
+     */
+    public void setMetrics(ChannelMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private final CompletionHandler<AsynchronousSocketChannel, CompletableFuture<FutureSocketChannel>> acceptor =
+            new CompletionHandler<AsynchronousSocketChannel, CompletableFuture<FutureSocketChannel>>() {
+                public void completed(AsynchronousSocketChannel channel, CompletableFuture<FutureSocketChannel> acceptor) {
+                    acceptor.complete(accepted(channel));
+                }
+
+                public void failed(Throwable th, CompletableFuture<FutureSocketChannel> acceptor) {
+                    acceptFailed();
+                    acceptor.completeExceptionally(th);
+                }
+            };
+
+    public void close() {
+        try {
+            assc.close();
+        } catch (IOException e) {
+            // Ignore
+        } finally {
+            closed.complete(null);
+        }
+    }
+
+    /**
+     * Completes when close() is called on this channel.
+     */
+    public CompletableFuture<Void> closeFuture() {
+        return closed;
+    }
+
     public InetSocketAddress getLocalAddress() throws IOException {
         return (InetSocketAddress) assc.getLocalAddress();
     }
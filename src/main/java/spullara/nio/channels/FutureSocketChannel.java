@@ -1,24 +1,59 @@
 package spullara.nio.channels;
 
+import spullara.util.concurrent.TimerWheel;
+
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.SocketOption;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.WritePendingException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 public class FutureSocketChannel {
 
+    private static final int TRANSFER_CHUNK = 8 * 1024 * 1024;
+
     private AsynchronousSocketChannel asc;
+    private final Executor executor;
+    private final WriteQueue writeQueue;
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private BufferPool bufferPool = BufferPool.getDefault();
+    private int readBufferSize = 4096;
+    private PooledRead pooledRead;
+    private ChannelMetrics metrics;
+    private MeteredRead meteredRead;
+    private Relay readRelay;
+    private Relay writeRelay;
+    private TimerWheel timer = TimerWheel.getShared();
+    private volatile long readTimeout;
+    private volatile long writeTimeout;
+    private volatile long idleTimeout;
+    private volatile long lastActivity;
 
     public FutureSocketChannel() throws IOException {
-        this.asc = AsynchronousSocketChannel.open();
+        this(AsynchronousSocketChannel.open());
     }
 
     protected FutureSocketChannel(AsynchronousSocketChannel asc) {
+        this(asc, null);
+    }
+
+    FutureSocketChannel(AsynchronousSocketChannel asc, Executor executor) {
         this.asc = asc;
+        this.executor = executor;
+        this.writeQueue = new WriteQueue(this, asc);
     }
 
     public void close() {
@@ -26,55 +61,658 @@ public class FutureSocketChannel {
             asc.close();
         } catch (IOException e) {
             // Ignore
+        } finally {
+            closed.complete(null);
         }
     }
 
+    /**
+     * Completes when close() is called on this channel.
+     */
+    public CompletableFuture<Void> closeFuture() {
+        return closed;
+    }
+
+    public boolean isOpen() {
+        return asc.isOpen();
+    }
+
+    public <T> FutureSocketChannel setOption(SocketOption<T> name, T value) throws IOException {
+        asc.setOption(name, value);
+        return this;
+    }
+
+    public <T> T getOption(SocketOption<T> name) throws IOException {
+        return asc.getOption(name);
+    }
+
+    /**
+     * Half close the connection, so the peer sees the end of the stream
+     * while we can still read from it. Writes still queued may fail.
+     */
+    public void shutdownOutput() throws IOException {
+        asc.shutdownOutput();
+    }
+
     public CompletableFuture<Void> connect(SocketAddress sa) {
         CompletableFuture<Void> connector = new CompletableFuture<>();
-        asc.connect(sa, connector, new CompletionHandler<Void, CompletableFuture<Void>>() {
-            public void completed(Void v1, CompletableFuture<Void> connector) {
-                connector.complete(null);
-            }
+        asc.connect(sa, connector, completer());
+        return connector;
+    }
 
-            public void failed(Throwable th, CompletableFuture<Void> connector) {
-                connector.completeExceptionally(th);
-            }
-        });
+    /**
+     * Connect, failing with an InterruptedByTimeoutException and closing the
+     * channel if the connection isn't established in time.
+     */
+    public CompletableFuture<Void> connect(SocketAddress sa, long timeout, TimeUnit unit) {
+        CompletableFuture<Void> connector = deadline(unit.toNanos(timeout));
+        asc.connect(sa, connector, completer());
         return connector;
     }
 
     public CompletableFuture<Integer> read(ByteBuffer buffer) {
-        CompletableFuture<Integer> reader = new CompletableFuture<>();
-        asc.read(buffer, reader, new CompletionHandler<Integer, CompletableFuture<Integer>>() {
-            public void completed(Integer length, CompletableFuture<Integer> reader) {
-                reader.complete(length);
-            }
+        CompletableFuture<Integer> reader = deadline(readTimeout);
+        touch();
+        asc.read(buffer, reader, reading());
+        return reader;
+    }
 
-            public void failed(Throwable th, CompletableFuture<Integer> reader) {
-                reader.completeExceptionally(th);
-            }
-        });
+    /**
+     * Read with a caller supplied handler. A handler that is reused for every
+     * read on the channel avoids allocating a future per operation. The
+     * read timeout applies as it does to other reads.
+     */
+    public <A> void read(ByteBuffer buffer, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        touch();
+        long timeout = readTimeout;
+        if (timeout == 0 && metrics == null) {
+            asc.read(buffer, attachment, handler);
+            return;
+        }
+        Relay relay = this.readRelay;
+        if (relay == null) {
+            this.readRelay = relay = new Relay(false);
+        } else if (relay.handler != null) {
+            throw new ReadPendingException();
+        }
+        relay.start(handler, attachment, buffer, timeout);
+        try {
+            asc.read(buffer, attachment, relay);
+        } catch (RuntimeException e) {
+            relay.abort();
+            throw e;
+        }
+    }
+
+    public CompletableFuture<Long> read(ByteBuffer[] buffers) {
+        return read(buffers, 0, buffers.length);
+    }
+
+    /**
+     * Scatter a single read across the buffers.
+     */
+    public CompletableFuture<Long> read(ByteBuffer[] buffers, int offset, int length) {
+        CompletableFuture<Long> reader = deadline(readTimeout);
+        touch();
+        asc.read(buffers, offset, length, 0L, TimeUnit.MILLISECONDS, reader, reading());
+        return reader;
+    }
+
+    /**
+     * Keep reading until every buffer is full. Completes with an EOFException
+     * if the stream ends first.
+     */
+    public CompletableFuture<Long> readFully(ByteBuffer... buffers) {
+        CompletableFuture<Long> reader = deadline(readTimeout);
+        new ReadFully(buffers).read(reader);
+        return reader;
+    }
+
+    /**
+     * Read into a buffer leased from the buffer pool. The buffer is flipped and
+     * ready to be consumed and must be given back with release(). Completes
+     * with null at the end of the stream.
+     */
+    public CompletableFuture<ByteBuffer> read() {
+        PooledRead pooledRead = this.pooledRead;
+        if (pooledRead == null) {
+            this.pooledRead = pooledRead = new PooledRead();
+        } else if (pooledRead.buffer != null) {
+            throw new ReadPendingException();
+        }
+        ByteBuffer buffer = pooledRead.buffer = bufferPool.lease(readBufferSize);
+        CompletableFuture<ByteBuffer> reader = deadline(readTimeout);
+        touch();
+        pooledRead.start();
+        try {
+            asc.read(buffer, reader, pooledRead);
+        } catch (RuntimeException e) {
+            pooledRead.completed(0);
+            pooledRead.buffer = null;
+            bufferPool.release(buffer);
+            throw e;
+        }
         return reader;
     }
 
+    /**
+     * Publish everything read from the channel as pooled chunks, reading only
+     * as fast as the subscriber requests them.
+     */
+    public ReadPublisher reads() {
+        return new ReadPublisher(this);
+    }
+
+    /**
+     * Return a buffer leased by read() to the buffer pool.
+     */
+    public void release(ByteBuffer buffer) {
+        bufferPool.release(buffer);
+    }
+
+    public CompletableFuture<Integer> write(byte[] bytes) {
+        return write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Copy the bytes into a buffer leased from the buffer pool and queue it
+     * for writing, releasing the buffer once it has been written.
+     */
+    public CompletableFuture<Integer> write(byte[] bytes, int offset, int length) {
+        ByteBuffer buffer = bufferPool.lease(length);
+        buffer.put(bytes, offset, length).flip();
+        return writeLeased(buffer);
+    }
+
+    /**
+     * Queue a buffer leased from the buffer pool, releasing it once it has
+     * been written.
+     */
+    CompletableFuture<Integer> writeLeased(ByteBuffer buffer) {
+        return writeQueue.write(buffer, bufferPool, deadline(writeTimeout));
+    }
+
+    /**
+     * Queue the buffer for writing. Concurrent writers are serialized and
+     * whatever is queued when the channel becomes writable is sent with a
+     * single gathering write. Completes once every remaining byte in the
+     * buffer has been written.
+     */
     public CompletableFuture<Integer> write(ByteBuffer buffer) {
-        CompletableFuture<Integer> writer = new CompletableFuture<>();
-        asc.write(buffer, writer, new CompletionHandler<Integer, CompletableFuture<Integer>>() {
-            public void completed(Integer length, CompletableFuture<Integer> writer) {
-                writer.complete(length);
+        return writeQueue.write(buffer, null, deadline(writeTimeout));
+    }
+
+    public CompletableFuture<Long> write(ByteBuffer[] buffers) {
+        return write(buffers, 0, buffers.length);
+    }
+
+    /**
+     * Queue the buffers to be written together, so that nothing from other
+     * writers is interleaved between them. Completes once every buffer has
+     * been drained, however many gathering writes that takes.
+     */
+    public CompletableFuture<Long> write(ByteBuffer[] buffers, int offset, int length) {
+        return writeQueue.write(buffers, offset, length, deadline(writeTimeout));
+    }
+
+    /**
+     * Send count bytes of the file starting at position. The asynchronous
+     * channel can't use sendfile, so the file is memory mapped in chunks
+     * that are written straight from the page cache without being copied
+     * through the heap. Completes with the number of bytes sent, which is
+     * less than count if the file is shorter.
+     */
+    public CompletableFuture<Long> transferFrom(FileChannel fc, long position, long count) {
+        CompletableFuture<Long> transfer = new CompletableFuture<>();
+        transfer(fc, position, count, 0, transfer);
+        return transfer;
+    }
+
+    private void transfer(FileChannel fc, long position, long remaining, long total, CompletableFuture<Long> transfer) {
+        try {
+            long size = Math.min(remaining, fc.size() - position);
+            if (size <= 0) {
+                transfer.complete(total);
+                return;
             }
+            int chunk = (int) Math.min(size, TRANSFER_CHUNK);
+            MappedByteBuffer mapped = fc.map(FileChannel.MapMode.READ_ONLY, position, chunk);
+            writeQueue.write(mapped, null, deadline(writeTimeout)).whenComplete((written, th) -> {
+                if (th == null) {
+                    transfer(fc, position + chunk, remaining - chunk, total + chunk, transfer);
+                } else {
+                    transfer.completeExceptionally(th);
+                }
+            });
+        } catch (IOException e) {
+            transfer.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Write with a caller supplied handler. A handler that is reused for every
+     * write on the channel avoids allocating a future per operation. This
+     * bypasses the write queue so it must not be used while queued writes
+     * are pending. The write timeout applies as it does to queued writes.
+     */
+    public <A> void write(ByteBuffer buffer, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        touch();
+        long timeout = writeTimeout;
+        if (timeout == 0 && metrics == null) {
+            asc.write(buffer, attachment, handler);
+            return;
+        }
+        Relay relay = this.writeRelay;
+        if (relay == null) {
+            this.writeRelay = relay = new Relay(true);
+        } else if (relay.handler != null) {
+            throw new WritePendingException();
+        }
+        relay.start(handler, attachment, buffer, timeout);
+        try {
+            asc.write(buffer, attachment, relay);
+        } catch (RuntimeException e) {
+            relay.abort();
+            throw e;
+        }
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /**
+     * Size of the buffers leased by read().
+     */
+    public void setReadBufferSize(int readBufferSize) {
+        this.readBufferSize = readBufferSize;
+    }
+
+    public ChannelMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Count this channel's I/O into the metrics, none by default. Set it
+     * before starting any reads or writes.
+     */
+    public void setMetrics(ChannelMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public long getReadTimeout(TimeUnit unit) {
+        return unit.convert(readTimeout, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Deadline for each read after which the read fails with an
+     * InterruptedByTimeoutException and the channel is closed. 0 disables it.
+     */
+    public void setReadTimeout(long timeout, TimeUnit unit) {
+        readTimeout = unit.toNanos(timeout);
+    }
+
+    public long getWriteTimeout(TimeUnit unit) {
+        return unit.convert(writeTimeout, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Deadline for each write, including time spent queued behind other
+     * writes, after which the write fails with an InterruptedByTimeoutException
+     * and the channel is closed. 0 disables it.
+     */
+    public void setWriteTimeout(long timeout, TimeUnit unit) {
+        writeTimeout = unit.toNanos(timeout);
+    }
+
+    public long getIdleTimeout(TimeUnit unit) {
+        return unit.convert(idleTimeout, TimeUnit.NANOSECONDS);
+    }
 
-            public void failed(Throwable th, CompletableFuture<Integer> writer) {
-                writer.completeExceptionally(th);
+    /**
+     * Close the channel once no read or write has been started on it for
+     * the timeout. 0 disables it. A single timer entry per channel tracks
+     * this rather than one per operation.
+     */
+    public void setIdleTimeout(long timeout, TimeUnit unit) {
+        boolean start = idleTimeout == 0;
+        lastActivity = System.nanoTime();
+        idleTimeout = unit.toNanos(timeout);
+        if (start && idleTimeout > 0) {
+            timer.schedule(new IdleCheck(), idleTimeout, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Timer used for timeouts, the shared timer by default.
+     */
+    public void setTimer(TimerWheel timer) {
+        this.timer = timer;
+    }
+
+    void touch() {
+        if (idleTimeout != 0) {
+            lastActivity = System.nanoTime();
+        }
+    }
+
+    private <V> CompletableFuture<V> deadline(long timeoutNanos) {
+        return timeoutNanos == 0 ? new CompletableFuture<>() : new DeadlineFuture<>(this, timer, timeoutNanos);
+    }
+
+    private class IdleCheck implements Runnable {
+        public void run() {
+            long timeout = idleTimeout;
+            if (timeout == 0 || !isOpen()) {
+                return;
+            }
+            long idle = System.nanoTime() - lastActivity;
+            if (idle >= timeout) {
+                close();
+            } else {
+                timer.schedule(this, timeout - idle, TimeUnit.NANOSECONDS);
             }
-        });
-        return writer;
+        }
+    }
+
+    /**
+     * Executor for continuations on this channel. For channels opened from a
+     * FutureChannelGroup this runs tasks on the channel's own event loop,
+     * the same thread its I/O completes on, so passing it to the *Async
+     * methods keeps per-connection work on one thread. Otherwise it is the
+     * common pool.
+     */
+    public Executor getExecutor() {
+        return executor == null ? ForkJoinPool.commonPool() : executor;
     }
 
     public int getPort() throws IOException {
         return ((InetSocketAddress)asc.getLocalAddress()).getPort();
     }
 
+    /**
+     * Handler for a read completing a future, timing it if there are
+     * metrics.
+     */
+    @SuppressWarnings("unchecked")
+    private <V> CompletionHandler<V, CompletableFuture<V>> reading() {
+        if (metrics == null) {
+            return completer();
+        }
+        MeteredRead meteredRead = this.meteredRead;
+        if (meteredRead == null) {
+            this.meteredRead = meteredRead = new MeteredRead();
+        }
+        meteredRead.start();
+        return (CompletionHandler) meteredRead;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> CompletionHandler<V, CompletableFuture<V>> completer() {
+        return (CompletionHandler) COMPLETER;
+    }
+
+    /**
+     * Stateless, so a single instance completes the future passed as the
+     * attachment of every connect, read and write.
+     */
+    private static final CompletionHandler<Object, CompletableFuture<Object>> COMPLETER = new CompletionHandler<Object, CompletableFuture<Object>>() {
+        public void completed(Object result, CompletableFuture<Object> future) {
+            future.complete(result);
+        }
+
+        public void failed(Throwable th, CompletableFuture<Object> future) {
+            future.completeExceptionally(th);
+        }
+    };
+
+    /**
+     * Only one read can be pending, so a single instance per channel times
+     * them. The metrics are captured when the read starts so the counts
+     * stay balanced if they are changed.
+     */
+    private class ReadTimer {
+        private ChannelMetrics metrics;
+        private long started;
+
+        void start() {
+            metrics = FutureSocketChannel.this.metrics;
+            if (metrics != null) {
+                started = metrics.readStarted();
+            }
+        }
+
+        /**
+         * Returns when the callbacks started, or 0 if not timed.
+         */
+        long completed(long length) {
+            return metrics == null ? 0 : metrics.readCompleted(started, length);
+        }
+
+        void callbacksCompleted(long started) {
+            if (metrics != null) {
+                metrics.callbackCompleted(started);
+            }
+        }
+    }
+
+    private class MeteredRead extends ReadTimer implements CompletionHandler<Object, CompletableFuture<Object>> {
+        public void completed(Object length, CompletableFuture<Object> reader) {
+            long started = completed(((Number) length).longValue());
+            reader.complete(length);
+            callbacksCompleted(started);
+        }
+
+        public void failed(Throwable th, CompletableFuture<Object> reader) {
+            long started = completed(0);
+            reader.completeExceptionally(th);
+            callbacksCompleted(started);
+        }
+    }
+
+    private class ReadFully extends ReadTimer implements CompletionHandler<Long, CompletableFuture<Long>> {
+        private final ByteBuffer[] buffers;
+        private int offset;
+        private long total;
+
+        ReadFully(ByteBuffer[] buffers) {
+            this.buffers = buffers;
+        }
+
+        void read(CompletableFuture<Long> reader) {
+            while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+                offset++;
+            }
+            if (offset == buffers.length) {
+                reader.complete(total);
+            } else {
+                touch();
+                start();
+                asc.read(buffers, offset, buffers.length - offset, 0L, TimeUnit.MILLISECONDS, reader, this);
+            }
+        }
+
+        public void completed(Long length, CompletableFuture<Long> reader) {
+            long started = completed((long) length);
+            if (length < 0) {
+                reader.completeExceptionally(new EOFException("Stream ended after " + total + " bytes"));
+                callbacksCompleted(started);
+            } else {
+                total += length;
+                read(reader);
+                if (reader.isDone()) {
+                    callbacksCompleted(started);
+                }
+            }
+        }
+
+        public void failed(Throwable th, CompletableFuture<Long> reader) {
+            long started = completed(0);
+            reader.completeExceptionally(th);
+            callbacksCompleted(started);
+        }
+    }
+
+    /**
+     * Relays a read or write made with a caller supplied handler, counting
+     * it into the metrics and timing it out on the timer wheel like the
+     * other operations. Only one read and one write can be pending, so the
+     * channel keeps an instance for each. One that times out is retired,
+     * since the channel's own completion of that operation still arrives
+     * after the handler has been told.
+     */
+    private class Relay implements CompletionHandler<Integer, Object>, Runnable {
+        private final boolean write;
+        CompletionHandler<Integer, Object> handler;
+        private Object attachment;
+        private TimerWheel.Timeout timeout;
+        private ChannelMetrics metrics;
+        private long started;
+        private long pending;
+
+        Relay(boolean write) {
+            this.write = write;
+        }
+
+        @SuppressWarnings("unchecked")
+        void start(CompletionHandler<Integer, ?> handler, Object attachment, ByteBuffer buffer, long timeoutNanos) {
+            this.handler = (CompletionHandler<Integer, Object>) handler;
+            this.attachment = attachment;
+            metrics = FutureSocketChannel.this.metrics;
+            if (metrics != null) {
+                if (write) {
+                    // Never queued, so counted as pending only while in flight
+                    pending = buffer.remaining();
+                    metrics.queued(pending);
+                    started = metrics.writeStarted();
+                } else {
+                    started = metrics.readStarted();
+                }
+            }
+            timeout = timeoutNanos == 0 ? null : timer.schedule(this, timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void abort() {
+            if (claim()) {
+                handler = null;
+                attachment = null;
+                finished(0);
+            }
+        }
+
+        /**
+         * Returns false if the operation timed out and its handler has
+         * already been failed.
+         */
+        private boolean claim() {
+            TimerWheel.Timeout timeout = this.timeout;
+            return timeout == null || timeout.cancel();
+        }
+
+        /**
+         * Returns when the callback started, or 0 if not timed.
+         */
+        private long finished(long length) {
+            if (metrics == null) {
+                return 0;
+            }
+            if (!write) {
+                return metrics.readCompleted(started, length);
+            }
+            long now = metrics.writeCompleted(started, length);
+            if (pending > length) {
+                metrics.queued(length - pending);
+            }
+            return now;
+        }
+
+        /**
+         * Timed out
+         */
+        public void run() {
+            if (write) {
+                if (writeRelay == this) writeRelay = null;
+            } else {
+                if (readRelay == this) readRelay = null;
+            }
+            close();
+            fail(new InterruptedByTimeoutException());
+        }
+
+        public void completed(Integer length, Object attachment) {
+            if (!claim()) {
+                return;
+            }
+            // Cleared first, the handler may start the next operation
+            CompletionHandler<Integer, Object> handler = this.handler;
+            this.handler = null;
+            this.attachment = null;
+            ChannelMetrics metrics = this.metrics;
+            long completing = finished(length);
+            handler.completed(length, attachment);
+            if (metrics != null) {
+                metrics.callbackCompleted(completing);
+            }
+        }
+
+        public void failed(Throwable th, Object attachment) {
+            if (claim()) {
+                fail(th);
+            }
+        }
+
+        private void fail(Throwable th) {
+            CompletionHandler<Integer, Object> handler = this.handler;
+            Object attachment = this.attachment;
+            this.handler = null;
+            this.attachment = null;
+            ChannelMetrics metrics = this.metrics;
+            long completing = finished(0);
+            handler.failed(th, attachment);
+            if (metrics != null) {
+                metrics.callbackCompleted(completing);
+            }
+        }
+    }
+
+    /**
+     * Only one read can be pending on a channel, so the handler for pooled
+     * reads is created once per channel and tracks the leased buffer.
+     */
+    private class PooledRead extends ReadTimer implements CompletionHandler<Integer, CompletableFuture<ByteBuffer>> {
+        ByteBuffer buffer;
+
+        public void completed(Integer length, CompletableFuture<ByteBuffer> reader) {
+            long started = completed((long) length);
+            ByteBuffer buffer = this.buffer;
+            this.buffer = null;
+            if (length < 0) {
+                bufferPool.release(buffer);
+                reader.complete(null);
+            } else {
+                buffer.flip();
+                reader.complete(buffer);
+            }
+            callbacksCompleted(started);
+        }
+
+        public void failed(Throwable th, CompletableFuture<ByteBuffer> reader) {
+            long started = completed(0);
+            bufferPool.release(buffer);
+            buffer = null;
+            reader.completeExceptionally(th);
+            callbacksCompleted(started);
+        }
+    }
+
     public static FutureSocketChannel open() throws IOException {
         return new FutureSocketChannel(AsynchronousSocketChannel.open());
     }
@@ -0,0 +1,417 @@
+package spullara.nio.channels;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadPendingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TLS over a connected FutureSocketChannel. The SSLEngine is driven from
+ * the channel's read and write completions, records are wrapped into
+ * buffers leased from the channel's pool and queued on its write queue,
+ * and the engine's delegated tasks run on a separate executor so that
+ * no I/O thread ever blocks on them.
+ *
+ * The handshake starts with the first read or write, or explicitly with
+ * handshake(). Like FutureSocketChannel.read(), reads return pooled
+ * buffers that must be given back with release() and only one read may
+ * be outstanding at a time.
+ */
+public class FutureSslSocketChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final FutureSocketChannel channel;
+    private final SSLEngine engine;
+    private final Executor taskExecutor;
+    private final BufferPool pool;
+    private final Object wrapLock = new Object();
+    private final AtomicBoolean reading = new AtomicBoolean();
+    private volatile CompletableFuture<Void> handshake;
+    private volatile boolean closed;
+
+    // Settles after the last write issued before the handshake finished
+    private CompletableFuture<?> pendingWrites;
+
+    // Both filled between 0 and the position, owned by the current reader
+    private ByteBuffer netIn;
+    private ByteBuffer appIn;
+
+    public FutureSslSocketChannel(FutureSocketChannel channel, SSLEngine engine) {
+        this(channel, engine, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param taskExecutor runs the engine's delegated tasks, like certificate validation
+     */
+    public FutureSslSocketChannel(FutureSocketChannel channel, SSLEngine engine, Executor taskExecutor) {
+        this.channel = channel;
+        this.engine = engine;
+        this.taskExecutor = taskExecutor;
+        pool = channel.getBufferPool();
+        netIn = pool.lease(engine.getSession().getPacketBufferSize());
+    }
+
+    /**
+     * Completes when the handshake has finished. Only the first call
+     * starts it.
+     */
+    public CompletableFuture<Void> handshake() {
+        CompletableFuture<Void> handshake = this.handshake;
+        if (handshake != null) return handshake;
+        synchronized (wrapLock) {
+            if ((handshake = this.handshake) != null) return handshake;
+            pendingWrites = this.handshake = handshake = new CompletableFuture<>();
+        }
+        if (!reading.compareAndSet(false, true)) {
+            handshake.completeExceptionally(new ClosedChannelException());
+            return handshake;
+        }
+        try {
+            engine.beginHandshake();
+            handshake(handshake);
+        } catch (SSLException | RuntimeException e) {
+            handshaken(handshake, e);
+        }
+        return handshake;
+    }
+
+    private void handshaken(CompletableFuture<Void> done, Throwable th) {
+        // Before completing so that reads waiting on it can start
+        reading.set(false);
+        if (th == null) {
+            done.complete(null);
+        } else {
+            done.completeExceptionally(th);
+        }
+    }
+
+    private void handshake(CompletableFuture<Void> done) {
+        try {
+            while (true) {
+                switch (engine.getHandshakeStatus()) {
+                    case NEED_TASK:
+                        runTasks().whenComplete((v, th) -> {
+                            if (th == null) {
+                                handshake(done);
+                            } else {
+                                handshaken(done, th);
+                            }
+                        });
+                        return;
+                    case NEED_WRAP:
+                        wrap(EMPTY).whenComplete((n, th) -> {
+                            if (th != null) done.completeExceptionally(th);
+                        });
+                        if (engine.isOutboundDone()) {
+                            handshaken(done, new SSLException("Engine closed during handshake"));
+                            return;
+                        }
+                        break;
+                    case FINISHED:
+                    case NOT_HANDSHAKING:
+                        handshaken(done, null);
+                        return;
+                    default:
+                        SSLEngineResult result = unwrap();
+                        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                            handshaken(done, new SSLException("Engine closed during handshake"));
+                            return;
+                        }
+                        if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                            readNetwork().whenComplete((n, th) -> {
+                                if (th != null) {
+                                    handshaken(done, th);
+                                } else if (n < 0) {
+                                    handshaken(done, new SSLException("Channel closed during handshake"));
+                                } else {
+                                    handshake(done);
+                                }
+                            });
+                            return;
+                        }
+                }
+            }
+        } catch (SSLException | RuntimeException e) {
+            handshaken(done, e);
+        }
+    }
+
+    /**
+     * Read and decrypt the next application data into a buffer leased from
+     * the channel's pool, flipped and ready to be consumed. Completes with
+     * null at the end of the stream.
+     */
+    public CompletableFuture<ByteBuffer> read() {
+        CompletableFuture<ByteBuffer> reader = new CompletableFuture<>();
+        if (closed) {
+            reader.completeExceptionally(new ClosedChannelException());
+            return reader;
+        }
+        handshake().whenComplete((v, th) -> {
+            if (th != null) {
+                reader.completeExceptionally(th);
+            } else if (!reading.compareAndSet(false, true)) {
+                reader.completeExceptionally(new ReadPendingException());
+            } else {
+                read(reader);
+            }
+        });
+        return reader;
+    }
+
+    private void read(CompletableFuture<ByteBuffer> reader) {
+        try {
+            while (true) {
+                if (appIn != null && appIn.position() > 0) {
+                    ByteBuffer app = appIn;
+                    appIn = null;
+                    app.flip();
+                    finish(reader, app, null);
+                    return;
+                }
+                SSLEngineResult result = unwrap();
+                // Post handshake messages, like session tickets and key updates
+                switch (result.getHandshakeStatus()) {
+                    case NEED_TASK:
+                        runTasks().whenComplete((v, th) -> {
+                            if (th == null) {
+                                read(reader);
+                            } else {
+                                finish(reader, null, th);
+                            }
+                        });
+                        return;
+                    case NEED_WRAP:
+                        wrap(EMPTY);
+                        break;
+                }
+                switch (result.getStatus()) {
+                    case CLOSED:
+                        if (appIn.position() == 0) {
+                            finish(reader, null, null);
+                            return;
+                        }
+                        break;
+                    case BUFFER_UNDERFLOW:
+                        readNetwork().whenComplete((n, th) -> {
+                            if (th != null) {
+                                finish(reader, null, th);
+                            } else if (n < 0) {
+                                try {
+                                    // Throws if the peer didn't send close_notify
+                                    engine.closeInbound();
+                                    finish(reader, null, null);
+                                } catch (SSLException e) {
+                                    finish(reader, null, e);
+                                }
+                            } else {
+                                read(reader);
+                            }
+                        });
+                        return;
+                }
+            }
+        } catch (SSLException | RuntimeException e) {
+            finish(reader, null, e);
+        }
+    }
+
+    private void finish(CompletableFuture<ByteBuffer> reader, ByteBuffer app, Throwable th) {
+        reading.set(false);
+        if (closed) {
+            releaseBuffers();
+        }
+        if (th == null) {
+            reader.complete(app);
+        } else {
+            reader.completeExceptionally(th);
+        }
+    }
+
+    /**
+     * Encrypt and write the buffer, completing with the number of bytes of
+     * it written once they are all on the wire. Writes are sent in the
+     * order they are called, including those made before the handshake
+     * finishes.
+     */
+    public CompletableFuture<Integer> write(ByteBuffer buffer) {
+        if (closed) {
+            CompletableFuture<Integer> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new ClosedChannelException());
+            return failed;
+        }
+        handshake();
+        synchronized (wrapLock) {
+            CompletableFuture<Void> handshake = this.handshake;
+            if (pendingWrites.isDone() && handshake.isDone() && !handshake.isCompletedExceptionally()) {
+                return write0(buffer);
+            }
+            // Wait for the previous write however it ends, so that one
+            // failing only fails its own future, but not for a failed handshake
+            CompletableFuture<Integer> writer = pendingWrites.handle((v, th) -> handshake)
+                    .thenCompose(done -> done)
+                    .thenCompose(v -> write0(buffer));
+            pendingWrites = writer.handle((n, th) -> null);
+            return writer;
+        }
+    }
+
+    public CompletableFuture<Integer> write(byte[] bytes) {
+        return write(ByteBuffer.wrap(bytes));
+    }
+
+    private CompletableFuture<Integer> write0(ByteBuffer buffer) {
+        try {
+            int length = buffer.remaining();
+            return wrap(buffer).thenApply(n -> length);
+        } catch (SSLException | RuntimeException e) {
+            CompletableFuture<Integer> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Give back a buffer returned by read().
+     */
+    public void release(ByteBuffer buffer) {
+        pool.release(buffer);
+    }
+
+    public SSLSession getSession() {
+        return engine.getSession();
+    }
+
+    public FutureSocketChannel getChannel() {
+        return channel;
+    }
+
+    public CompletableFuture<Void> closeFuture() {
+        return channel.closeFuture();
+    }
+
+    public boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    /**
+     * Send close_notify and close the channel once it has been written.
+     */
+    public void close() {
+        if (closed) return;
+        closed = true;
+        engine.closeOutbound();
+        try {
+            wrap(EMPTY).whenComplete((n, th) -> channel.close());
+        } catch (SSLException | RuntimeException e) {
+            channel.close();
+        }
+        releaseBuffers();
+    }
+
+    /**
+     * Once closed, whoever isn't reading gives the buffers back, leaving
+     * reading set for good.
+     */
+    private void releaseBuffers() {
+        if (reading.compareAndSet(false, true)) {
+            pool.release(netIn);
+            if (appIn != null) {
+                pool.release(appIn);
+                appIn = null;
+            }
+        }
+    }
+
+    private CompletableFuture<Void> runTasks() {
+        return CompletableFuture.runAsync(() -> {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }, taskExecutor);
+    }
+
+    private CompletableFuture<Integer> readNetwork() {
+        if (!netIn.hasRemaining()) {
+            netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+        }
+        return channel.read(netIn);
+    }
+
+    /**
+     * Unwrap as much as fits from the network buffer, growing the
+     * application buffer if the engine asks for more room.
+     */
+    private SSLEngineResult unwrap() throws SSLException {
+        int appSize = engine.getSession().getApplicationBufferSize();
+        if (appIn == null) {
+            appIn = pool.lease(appSize);
+        }
+        while (true) {
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            if (result.getStatus() != SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                return result;
+            }
+            appIn = grow(appIn, appSize);
+        }
+    }
+
+    /**
+     * Wrap the whole buffer into records, queueing each for writing, and
+     * return the future for the last one.
+     */
+    private CompletableFuture<Integer> wrap(ByteBuffer buffer) throws SSLException {
+        CompletableFuture<Integer> written = null;
+        synchronized (wrapLock) {
+            do {
+                ByteBuffer net = pool.lease(engine.getSession().getPacketBufferSize());
+                SSLEngineResult result;
+                try {
+                    result = engine.wrap(buffer, net);
+                } catch (SSLException | RuntimeException e) {
+                    pool.release(net);
+                    throw e;
+                }
+                net.flip();
+                if (net.hasRemaining()) {
+                    written = channel.writeLeased(net);
+                } else {
+                    pool.release(net);
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    if (buffer.hasRemaining()) {
+                        throw new SSLException("Engine closed");
+                    }
+                    break;
+                }
+                if (result.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new SSLException("Unexpected wrap result: " + result);
+                }
+            } while (buffer.hasRemaining());
+        }
+        return written == null ? CompletableFuture.completedFuture(0) : written;
+    }
+
+    private ByteBuffer grow(ByteBuffer buffer, int minimum) {
+        ByteBuffer larger = pool.lease(Math.max(buffer.capacity() * 2, minimum));
+        buffer.flip();
+        larger.put(buffer);
+        pool.release(buffer);
+        return larger;
+    }
+}
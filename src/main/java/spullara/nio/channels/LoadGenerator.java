@@ -0,0 +1,245 @@
+package spullara.nio.channels;
+
+import spullara.util.Histogram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open loop load against an echo style server: each request is a fixed
+ * size message and its response is the same number of bytes back, in
+ * order on each connection. Requests are sent on a fixed schedule no
+ * matter how long responses take, so a slow server builds up a queue the
+ * way it would with real users instead of slowing the generator down.
+ *
+ * Latency is measured from when each request was meant to be sent, which
+ * corrects for coordinated omission: if the generator itself falls behind
+ * the wait still counts. Service time, measured from when the request was
+ * actually written, is recorded alongside for comparison.
+ *
+ * Usage: LoadGenerator --host localhost --port 8080 --rate 10000
+ * [--duration 10] [--connections 4] [--size 64]
+ */
+public class LoadGenerator {
+
+    private final SocketAddress address;
+    private final int rate;
+    private final int connections;
+    private final int size;
+    private final Histogram latency = new Histogram();
+    private final Histogram serviceTime = new Histogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong outstanding = new AtomicLong();
+    private final CompletableFuture<Void> drained = new CompletableFuture<>();
+    private volatile boolean sending;
+
+    /**
+     * @param rate        requests per second across all connections
+     * @param connections connections to spread requests over round robin
+     * @param size        bytes in each request and response
+     */
+    public LoadGenerator(SocketAddress address, int rate, int connections, int size) {
+        if (rate <= 0 || connections <= 0 || size <= 0) {
+            throw new IllegalArgumentException("Invalid load: " + rate + "/s, " + connections + " connections, " + size + " bytes");
+        }
+        this.address = address;
+        this.rate = rate;
+        this.connections = connections;
+        this.size = size;
+    }
+
+    /**
+     * Connect, send at the rate for the duration and then wait for the
+     * responses still outstanding, up to 10 seconds. Runs on the calling
+     * thread.
+     */
+    public Result run(long duration, TimeUnit unit) throws IOException, InterruptedException {
+        Connection[] channels = new Connection[connections];
+        try {
+            for (int i = 0; i < connections; i++) {
+                channels[i] = new Connection();
+                channels[i].read();
+            }
+            ByteBuffer payload = ByteBuffer.allocateDirect(size);
+            long interval = Math.max(1, TimeUnit.SECONDS.toNanos(1) / rate);
+            long requests = unit.toNanos(duration) / interval;
+            sending = true;
+            long start = System.nanoTime();
+            for (long i = 0; i < requests; i++) {
+                long intended = start + i * interval;
+                long wait;
+                // Late requests go out immediately, keeping their intended time
+                while ((wait = intended - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                channels[(int) (i % connections)].send(intended, payload.duplicate());
+            }
+            long elapsed = System.nanoTime() - start;
+            sending = false;
+            finishIfDrained();
+            try {
+                drained.get(10, TimeUnit.SECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                errors.addAndGet(outstanding.get());
+            }
+            return new Result(requests, elapsed);
+        } finally {
+            for (Connection connection : channels) {
+                if (connection != null) {
+                    connection.channel.close();
+                }
+            }
+        }
+    }
+
+    private void finishIfDrained() {
+        if (!sending && outstanding.get() <= 0) {
+            drained.complete(null);
+        }
+    }
+
+    private class Connection {
+        final FutureSocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocateDirect(size);
+        // Intended and actual send times of requests awaiting responses, in order
+        final ConcurrentLinkedQueue<long[]> pending = new ConcurrentLinkedQueue<>();
+
+        Connection() throws IOException, InterruptedException {
+            channel = FutureSocketChannel.open();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            try {
+                channel.connect(address).get();
+            } catch (ExecutionException e) {
+                channel.close();
+                throw new IOException("Failed to connect to " + address, e.getCause());
+            }
+        }
+
+        void send(long intended, ByteBuffer payload) {
+            outstanding.incrementAndGet();
+            long[] times = {intended, System.nanoTime()};
+            pending.offer(times);
+            channel.write(payload).whenComplete((written, th) -> {
+                // No response is coming, so it no longer counts as outstanding
+                // and mustn't be matched with a later one
+                if (th != null && pending.remove(times)) {
+                    errors.incrementAndGet();
+                    outstanding.decrementAndGet();
+                    finishIfDrained();
+                }
+            });
+        }
+
+        void read() {
+            in.clear();
+            channel.readFully(in).whenComplete((length, th) -> {
+                if (th != null) {
+                    // Closed at the end of the run or failed, nothing more will arrive
+                    return;
+                }
+                long now = System.nanoTime();
+                long[] times = pending.poll();
+                if (times != null) {
+                    latency.record(now - times[0]);
+                    serviceTime.record(now - times[1]);
+                    completed.incrementAndGet();
+                    outstanding.decrementAndGet();
+                    finishIfDrained();
+                }
+                read();
+            });
+        }
+    }
+
+    public class Result {
+        private final long sent;
+        private final long elapsed;
+
+        Result(long sent, long elapsed) {
+            this.sent = sent;
+            this.elapsed = elapsed;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getCompleted() {
+            return completed.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * Nanos from when each request should have been sent to its response.
+         */
+        public Histogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Nanos from when each request was written to its response, which
+         * understates latency whenever the generator falls behind.
+         */
+        public Histogram getServiceTime() {
+            return serviceTime;
+        }
+
+        public double getThroughput() {
+            return completed.get() * 1e9 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("sent %d, completed %d, errors %d, %.0f req/s (target %d)%n",
+                    sent, getCompleted(), getErrors(), getThroughput(), rate));
+            sb.append(String.format("%-10s %14s %14s%n", "percentile", "latency (us)", "service (us)"));
+            for (double percentile : new double[]{50, 90, 99, 99.9, 99.99, 100}) {
+                sb.append(String.format("%-10s %14.1f %14.1f%n", percentile,
+                        latency.getValueAtPercentile(percentile) / 1e3, serviceTime.getValueAtPercentile(percentile) / 1e3));
+            }
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                usage();
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        if (!options.containsKey("port") || !options.containsKey("rate")) {
+            usage();
+        }
+        LoadGenerator generator = new LoadGenerator(
+                new InetSocketAddress(options.getOrDefault("host", "localhost"), Integer.parseInt(options.get("port"))),
+                Integer.parseInt(options.get("rate")),
+                Integer.parseInt(options.getOrDefault("connections", "4")),
+                Integer.parseInt(options.getOrDefault("size", "64")));
+        System.out.print(generator.run(Long.parseLong(options.getOrDefault("duration", "10")), TimeUnit.SECONDS));
+    }
+
+    private static void usage() {
+        System.err.println("Usage: LoadGenerator --host <host> --port <port> --rate <requests/s> " +
+                "[--duration <seconds>] [--connections <n>] [--size <bytes>]");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,280 @@
+package spullara.nio.channels;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Many concurrent requests over a single connection. Every message is a
+ * length prefixed frame holding a type byte, a 4 byte tag and the payload.
+ * Responses may arrive in any order and are matched back to their request
+ * by tag through a lock-free table. Cancelling a request's future tells
+ * the peer, which cancels the future its service returned.
+ *
+ * Either side may send requests. Requests that arrive are given to the
+ * service, if there is one. Frames are written through the channel's
+ * write queue, so frames sent concurrently go out in a single gathering
+ * write.
+ */
+public class MuxChannel {
+
+    private static final byte REQUEST = 1;
+    private static final byte RESPONSE = 2;
+    private static final byte ERROR = 3;
+    private static final byte CANCEL = 4;
+
+    private final FramedChannel framed;
+    private final int maxFrameLength;
+    private final Function<ByteBuffer, CompletableFuture<ByteBuffer>> service;
+    private final AtomicReferenceArray<Exchange> exchanges;
+    private final int mask;
+    private final AtomicInteger nextTag = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, CompletableFuture<ByteBuffer>> serving = new ConcurrentHashMap<>();
+    private final AtomicReference<Throwable> closed = new AtomicReference<>();
+
+    /**
+     * A channel that only sends requests.
+     */
+    public MuxChannel(FutureSocketChannel channel) {
+        this(channel, null);
+    }
+
+    public MuxChannel(FutureSocketChannel channel, Function<ByteBuffer, CompletableFuture<ByteBuffer>> service) {
+        this(channel, 1024, 16 * 1024 * 1024, service);
+    }
+
+    /**
+     * @param maxPending     most requests that may be outstanding at once, rounded up to a power of two
+     * @param maxFrameLength largest payload that may be sent or received
+     * @param service        handles requests from the peer, null to reject them
+     */
+    public MuxChannel(FutureSocketChannel channel, int maxPending, int maxFrameLength,
+                      Function<ByteBuffer, CompletableFuture<ByteBuffer>> service) {
+        if (maxPending <= 0 || maxPending > 1 << 30) {
+            throw new IllegalArgumentException("Invalid max pending: " + maxPending);
+        }
+        int size = Integer.highestOneBit(maxPending - 1) << 1;
+        if (size == 0) size = 1;
+        this.framed = new FramedChannel(channel, FrameCodecs.fixedLength(maxFrameLength + 5));
+        this.maxFrameLength = maxFrameLength;
+        this.service = service;
+        exchanges = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+        read();
+    }
+
+    /**
+     * Send a request, completing with the response payload. The payload
+     * must not be modified until the returned future is complete.
+     */
+    public CompletableFuture<ByteBuffer> request(ByteBuffer payload) {
+        Exchange exchange = new Exchange();
+        Throwable closed = this.closed.get();
+        if (closed != null) {
+            exchange.fail(closed);
+            return exchange;
+        }
+        if (payload.remaining() > maxFrameLength) {
+            exchange.fail(new IOException("Request length " + payload.remaining() + " exceeds maximum of " + maxFrameLength));
+            return exchange;
+        }
+        for (int i = 0; i <= mask; i++) {
+            int tag = nextTag.getAndIncrement() & Integer.MAX_VALUE;
+            if (exchanges.compareAndSet(tag & mask, null, exchange)) {
+                exchange.tag = tag;
+                // Closed after we looked, make sure we aren't left waiting
+                if ((closed = this.closed.get()) != null) {
+                    exchange.fail(closed);
+                    return exchange;
+                }
+                send(REQUEST, tag, payload).whenComplete((written, th) -> {
+                    if (th != null) exchange.fail(th);
+                });
+                return exchange;
+            }
+        }
+        exchange.fail(new IllegalStateException("Too many outstanding requests"));
+        return exchange;
+    }
+
+    public FutureSocketChannel getChannel() {
+        return framed.getChannel();
+    }
+
+    /**
+     * False once the connection has been closed by either side or failed.
+     */
+    public boolean isOpen() {
+        return closed.get() == null;
+    }
+
+    /**
+     * Close the connection, failing outstanding requests and cancelling
+     * requests being served.
+     */
+    public void close() {
+        shutdown(new IOException("Channel closed"));
+    }
+
+    private CompletableFuture<Long> send(byte type, int tag, ByteBuffer payload) {
+        ByteBuffer header = ByteBuffer.allocate(9);
+        header.putInt(5 + payload.remaining()).put(type).putInt(tag).flip();
+        return framed.getChannel().write(new ByteBuffer[]{header, payload});
+    }
+
+    private void read() {
+        CompletableFuture<ByteBuffer> reader;
+        // Keep going without recursion while frames are already buffered
+        while ((reader = framed.read()).isDone()) {
+            if (!receive(reader)) return;
+        }
+        CompletableFuture<ByteBuffer> pending = reader;
+        pending.whenComplete((frame, th) -> {
+            if (receive(pending)) read();
+        });
+    }
+
+    /**
+     * Handles a completed read, returning false once the connection is done.
+     */
+    private boolean receive(CompletableFuture<ByteBuffer> reader) {
+        ByteBuffer frame;
+        try {
+            frame = reader.join();
+        } catch (CompletionException e) {
+            shutdown(e.getCause());
+            return false;
+        }
+        if (frame == null) {
+            shutdown(new EOFException("Channel closed by peer"));
+            return false;
+        }
+        if (frame.remaining() < 5) {
+            shutdown(new IOException("Malformed frame"));
+            return false;
+        }
+        byte type = frame.get();
+        int tag = frame.getInt();
+        switch (type) {
+            case REQUEST:
+                serve(tag, copy(frame));
+                break;
+            case RESPONSE:
+            case ERROR:
+                Exchange exchange = exchanges.get(tag & mask);
+                if (exchange != null && exchange.tag == tag && exchanges.compareAndSet(tag & mask, exchange, null)) {
+                    if (type == RESPONSE) {
+                        exchange.complete(copy(frame));
+                    } else {
+                        exchange.completeExceptionally(new IOException(StandardCharsets.UTF_8.decode(frame).toString()));
+                    }
+                }
+                break;
+            case CANCEL:
+                CompletableFuture<ByteBuffer> served = serving.remove(tag);
+                if (served != null) {
+                    served.cancel(true);
+                }
+                break;
+            default:
+                shutdown(new IOException("Unknown frame type: " + type));
+                return false;
+        }
+        return true;
+    }
+
+    private void serve(int tag, ByteBuffer request) {
+        CompletableFuture<ByteBuffer> response;
+        try {
+            if (service == null) {
+                throw new UnsupportedOperationException("No service");
+            }
+            response = service.apply(request);
+            if (response == null) {
+                throw new NullPointerException("Service returned null");
+            }
+        } catch (RuntimeException e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        CompletableFuture<ByteBuffer> served = response;
+        serving.put(tag, served);
+        served.whenComplete((payload, th) -> {
+            // Not there if the peer cancelled it
+            if (serving.remove(tag, served)) {
+                if (th == null) {
+                    if (payload == null) {
+                        th = new NullPointerException("Service completed with null");
+                    } else if (payload.remaining() > maxFrameLength) {
+                        th = new IOException("Response length " + payload.remaining() + " exceeds maximum of " + maxFrameLength);
+                    } else {
+                        send(RESPONSE, tag, payload);
+                        return;
+                    }
+                } else if (th instanceof CompletionException && th.getCause() != null) {
+                    th = th.getCause();
+                }
+                ByteBuffer error = StandardCharsets.UTF_8.encode(String.valueOf(th));
+                // The peer would treat an oversized frame as a protocol error
+                if (error.remaining() > maxFrameLength) error.limit(maxFrameLength);
+                send(ERROR, tag, error);
+            }
+        });
+    }
+
+    private void shutdown(Throwable th) {
+        if (!closed.compareAndSet(null, th)) return;
+        framed.close();
+        for (int i = 0; i <= mask; i++) {
+            Exchange exchange = exchanges.getAndSet(i, null);
+            if (exchange != null) {
+                exchange.completeExceptionally(th);
+            }
+        }
+        for (Integer tag : serving.keySet()) {
+            CompletableFuture<ByteBuffer> served = serving.remove(tag);
+            if (served != null) {
+                served.cancel(true);
+            }
+        }
+    }
+
+    private static ByteBuffer copy(ByteBuffer frame) {
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+        copy.put(frame).flip();
+        return copy;
+    }
+
+    /**
+     * An outstanding request. Cancelling it frees its tag and sends a
+     * cancel to the peer.
+     */
+    private class Exchange extends CompletableFuture<ByteBuffer> {
+        volatile int tag = -1;
+
+        void fail(Throwable th) {
+            if (tag != -1) {
+                exchanges.compareAndSet(tag & mask, this, null);
+            }
+            completeExceptionally(th);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            int tag = this.tag;
+            if (cancelled && tag != -1 && exchanges.compareAndSet(tag & mask, this, null) && closed.get() == null) {
+                send(CANCEL, tag, ByteBuffer.allocate(0));
+            }
+            return cancelled;
+        }
+    }
+}
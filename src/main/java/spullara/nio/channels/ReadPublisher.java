@@ -0,0 +1,164 @@
+package spullara.nio.channels;
+
+import spullara.util.concurrent.Publisher;
+import spullara.util.concurrent.Subscriber;
+import spullara.util.concurrent.Subscription;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the bytes read from a FutureSocketChannel as chunks in buffers
+ * leased from the channel's buffer pool. The next read is only issued once
+ * the subscriber has demand for it. A chunk is only valid during onNext and
+ * is given back to the pool as soon as onNext returns. Signals to the
+ * subscriber never overlap: a terminal signal raised during onNext is
+ * delivered once it returns, and an onNext that throws cancels the stream
+ * and fails it with what was thrown.
+ *
+ * The stream completes at the end of the stream or when the channel is
+ * closed. Cancelling stops reading but leaves the channel open.
+ */
+public class ReadPublisher implements Publisher<ByteBuffer>, Subscription, CompletionHandler<Integer, Void> {
+
+    private final FutureSocketChannel channel;
+    private final AtomicReference<Subscriber<? super ByteBuffer>> subscriber = new AtomicReference<>();
+    private final AtomicLong demand = new AtomicLong();
+    private static final int IDLE = 0;
+    private static final int READING = 1;
+    private static final int EMITTING = 2;
+    private static final int DONE = 3;
+    private static final Object COMPLETED = new Object();
+
+    private final AtomicInteger state = new AtomicInteger();
+    // COMPLETED or the error, to be signalled once nothing else is
+    private final AtomicReference<Object> terminal = new AtomicReference<>();
+    private volatile boolean cancelled;
+
+    // Owned by the pending read
+    private ByteBuffer buffer;
+
+    ReadPublisher(FutureSocketChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+        if (this.subscriber.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(this);
+        } else {
+            subscriber.onSubscribe(this);
+            subscriber.onError(new IllegalStateException("Only a single subscriber is supported"));
+        }
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            terminate(new IllegalArgumentException("Demand must be positive: " + n));
+            return;
+        }
+        demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+        read();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void read() {
+        if (!cancelled && demand.get() > 0 && state.compareAndSet(IDLE, READING)) {
+            BufferPool pool = channel.getBufferPool();
+            buffer = pool.lease(channel.getReadBufferSize());
+            try {
+                channel.read(buffer, null, this);
+            } catch (RuntimeException e) {
+                pool.release(buffer);
+                buffer = null;
+                terminate(e);
+            }
+        }
+    }
+
+    @Override
+    public void completed(Integer length, Void v) {
+        ByteBuffer buffer = this.buffer;
+        this.buffer = null;
+        if (length < 0) {
+            channel.release(buffer);
+            terminate(null);
+            return;
+        }
+        if (cancelled || !state.compareAndSet(READING, EMITTING)) {
+            // Cancelled, or terminated while the read was in flight
+            channel.release(buffer);
+            if (state.compareAndSet(READING, IDLE)) {
+                read();
+            }
+            return;
+        }
+        buffer.flip();
+        demand.decrementAndGet();
+        Throwable thrown = null;
+        try {
+            subscriber.get().onNext(buffer);
+        } catch (Throwable th) {
+            thrown = th;
+        } finally {
+            channel.release(buffer);
+            state.set(IDLE);
+        }
+        if (thrown != null) {
+            terminate(thrown);
+        } else if (terminal.get() != null) {
+            signalTerminal();
+        } else {
+            read();
+        }
+    }
+
+    @Override
+    public void failed(Throwable th, Void v) {
+        channel.release(buffer);
+        buffer = null;
+        if (th instanceof AsynchronousCloseException || th instanceof ClosedChannelException) {
+            terminate(null);
+        } else {
+            terminate(th);
+        }
+    }
+
+    private void terminate(Throwable th) {
+        cancelled = true;
+        terminal.compareAndSet(null, th == null ? COMPLETED : th);
+        signalTerminal();
+    }
+
+    /**
+     * Signal the terminal event unless onNext() is running, in which case
+     * it is signalled when onNext() returns.
+     */
+    private void signalTerminal() {
+        while (true) {
+            int current = state.get();
+            if (current == EMITTING || current == DONE) {
+                return;
+            }
+            if (state.compareAndSet(current, DONE)) {
+                Object signal = terminal.get();
+                if (signal == COMPLETED) {
+                    subscriber.get().onComplete();
+                } else {
+                    subscriber.get().onError((Throwable) signal);
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package spullara.nio.channels;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Serializes writes to a channel. Writers append to a lock-free queue and
+ * whoever finds the channel idle becomes the flusher, gathering everything
+ * queued so far into a single write. A writer's future completes once all
+ * of its bytes have been written.
+ */
+class WriteQueue implements CompletionHandler<Long, Void> {
+
+    private static final int MAX_GATHER = 64;
+
+    private static final AtomicReferenceFieldUpdater<WriteQueue, PendingWrite> TAIL =
+            AtomicReferenceFieldUpdater.newUpdater(WriteQueue.class, PendingWrite.class, "tail");
+
+    private final FutureSocketChannel channel;
+    private final AsynchronousSocketChannel asc;
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    // Owned by the flusher, always the last completed write
+    private PendingWrite head = new PendingWrite(null, null, null);
+    private volatile PendingWrite tail = head;
+    private int gathered;
+    private ChannelMetrics metrics;
+    private long started;
+
+    WriteQueue(FutureSocketChannel channel, AsynchronousSocketChannel asc) {
+        this.channel = channel;
+        this.asc = asc;
+    }
+
+    CompletableFuture<Integer> write(ByteBuffer buffer, BufferPool pool, CompletableFuture<Integer> writer) {
+        enqueue(new PendingWrite(buffer, pool, writer));
+        return writer;
+    }
+
+    CompletableFuture<Long> write(ByteBuffer[] buffers, int offset, int length, CompletableFuture<Long> writer) {
+        enqueue(new PendingWrite(buffers, offset, length, writer));
+        return writer;
+    }
+
+    private void enqueue(PendingWrite write) {
+        ChannelMetrics metrics = channel.getMetrics();
+        if (metrics != null) {
+            metrics.queued(write.total);
+        }
+        TAIL.getAndSet(this, write).next = write;
+        if (flushing.compareAndSet(false, true)) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        while (true) {
+            PendingWrite write = head.next;
+            if (write != null && write.isWritten()) {
+                long completing = metrics == null ? 0 : System.nanoTime();
+                do {
+                    head = write;
+                    write.completed();
+                } while ((write = head.next) != null && write.isWritten());
+                if (metrics != null) {
+                    metrics.callbackCompleted(completing);
+                }
+            }
+            int count = 0;
+            for (; write != null && count < MAX_GATHER; write = write.next) {
+                if (write.buffers == null) {
+                    gather[count++] = write.buffer;
+                } else {
+                    for (int i = write.offset; i < write.offset + write.length && count < MAX_GATHER; i++) {
+                        if (write.buffers[i].hasRemaining()) {
+                            gather[count++] = write.buffers[i];
+                        }
+                    }
+                }
+            }
+            if (count > 0) {
+                gathered = count;
+                channel.touch();
+                metrics = channel.getMetrics();
+                if (metrics != null) {
+                    started = metrics.writeStarted();
+                }
+                try {
+                    asc.write(gather, 0, count, 0L, TimeUnit.MILLISECONDS, null, this);
+                } catch (RuntimeException e) {
+                    failed(e, null);
+                }
+                return;
+            }
+            // Writers link themselves before trying to flush, so either we
+            // see their write or they see that we stopped flushing
+            flushing.set(false);
+            if (head.next == null || !flushing.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    public void completed(Long written, Void v) {
+        Arrays.fill(gather, 0, gathered, null);
+        if (metrics != null) {
+            metrics.writeCompleted(started, written);
+        }
+        flush();
+    }
+
+    public void failed(Throwable th, Void v) {
+        Arrays.fill(gather, 0, gathered, null);
+        long completing = 0;
+        if (metrics != null) {
+            completing = metrics.writeCompleted(started, 0);
+        }
+        PendingWrite write;
+        while ((write = head.next) != null) {
+            head = write;
+            if (metrics != null) {
+                metrics.queued(-write.remaining());
+            }
+            write.failed(th);
+        }
+        if (metrics != null) {
+            metrics.callbackCompleted(completing);
+        }
+        flush();
+    }
+
+    private static class PendingWrite {
+        volatile PendingWrite next;
+        ByteBuffer buffer;
+        ByteBuffer[] buffers;
+        final int offset;
+        final int length;
+        final long total;
+        final BufferPool pool;
+        final CompletableFuture<Integer> writer;
+        final CompletableFuture<Long> vectoredWriter;
+
+        PendingWrite(ByteBuffer buffer, BufferPool pool, CompletableFuture<Integer> writer) {
+            this.buffer = buffer;
+            this.offset = 0;
+            this.length = 1;
+            this.total = buffer == null ? 0 : buffer.remaining();
+            this.pool = pool;
+            this.writer = writer;
+            this.vectoredWriter = null;
+        }
+
+        PendingWrite(ByteBuffer[] buffers, int offset, int length, CompletableFuture<Long> vectoredWriter) {
+            this.buffers = buffers;
+            this.offset = offset;
+            this.length = length;
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += buffers[i].remaining();
+            }
+            this.total = total;
+            this.pool = null;
+            this.writer = null;
+            this.vectoredWriter = vectoredWriter;
+        }
+
+        boolean isWritten() {
+            if (buffers == null) {
+                return !buffer.hasRemaining();
+            }
+            for (int i = offset; i < offset + length; i++) {
+                if (buffers[i].hasRemaining()) return false;
+            }
+            return true;
+        }
+
+        long remaining() {
+            if (buffers == null) {
+                return buffer.remaining();
+            }
+            long remaining = 0;
+            for (int i = offset; i < offset + length; i++) {
+                remaining += buffers[i].remaining();
+            }
+            return remaining;
+        }
+
+        void completed() {
+            release();
+            if (writer == null) {
+                vectoredWriter.complete(total);
+            } else {
+                writer.complete((int) total);
+            }
+        }
+
+        void failed(Throwable th) {
+            release();
+            if (writer == null) {
+                vectoredWriter.completeExceptionally(th);
+            } else {
+                writer.completeExceptionally(th);
+            }
+        }
+
+        private void release() {
+            if (pool != null) {
+                pool.release(buffer);
+            }
+            buffer = null;
+            buffers = null;
+        }
+    }
+}
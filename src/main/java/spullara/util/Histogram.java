@@ -0,0 +1,111 @@
+package spullara.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of non-negative longs, like latencies in nanos.
+ * Values below 64 are counted exactly and larger values in 32 buckets per
+ * power of two, so percentiles are within about 3% of the true value.
+ * Every count is a LongAdder, which spreads updates over cells when
+ * threads contend, so a histogram shared by many threads doesn't make
+ * them fight over one cache line. Buckets are created the first time a
+ * value lands in them, so the histogram only grows with the range of
+ * values, not how many there are.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int LINEAR = 1 << (SUB_BITS + 1);
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final AtomicReferenceArray<LongAdder> counts = new AtomicReferenceArray<>(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        int index = index(value);
+        LongAdder bucket = counts.get(index);
+        if (bucket == null) {
+            LongAdder created = new LongAdder();
+            bucket = counts.compareAndSet(index, null, created) ? created : counts.get(index);
+        }
+        bucket.increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = this.count.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * The value at or below which the percentile, from 0 to 100, of
+     * recorded values fall. Reported as the top of the bucket it lands in,
+     * so it never understates. Returns 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            LongAdder bucket = counts.get(i);
+            if (bucket != null) {
+                total += snapshot[i] = bucket.sum();
+            }
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalent(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clear the histogram. Values recorded concurrently may or may not
+     * survive.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            LongAdder bucket = counts.get(i);
+            if (bucket != null) {
+                bucket.reset();
+            }
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    private static int index(long value) {
+        if (value < LINEAR) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    private static long highestEquivalent(int index) {
+        if (index < LINEAR) return index;
+        int shift = (index >> SUB_BITS) - 1;
+        long mantissa = (index & ((1 << SUB_BITS) - 1)) + (1 << SUB_BITS);
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,45 @@
+package spullara.util;
+
+/**
+ * Two values, as returned by Promise.join().
+ */
+public final class Pair<A, B> {
+    private final A first;
+    private final B second;
+
+    private Pair(A first, B second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    public static <A, B> Pair<A, B> of(A first, B second) {
+        return new Pair<>(first, second);
+    }
+
+    public A getFirst() {
+        return first;
+    }
+
+    public B getSecond() {
+        return second;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Pair)) return false;
+        Pair<?, ?> pair = (Pair<?, ?>) o;
+        return (first == null ? pair.first == null : first.equals(pair.first)) &&
+                (second == null ? pair.second == null : second.equals(pair.second));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (first == null ? 0 : first.hashCode()) + (second == null ? 0 : second.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return "(" + first + ", " + second + ")";
+    }
+}
@@ -0,0 +1,180 @@
+package spullara.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Coalesces individual key lookups into calls to a batch function, like
+ * a DataLoader. Keys asked for within the window after the first one, or
+ * until the batch reaches its maximum size, go out together in a single
+ * call. A key asked for more than once, whether in the same batch or
+ * while a batch containing it is still outstanding, shares one future.
+ *
+ * The batch function is called on the thread that fills the batch, calls
+ * flush(), or on the timer thread when the window closes, so it should
+ * start its work and return a future rather than block.
+ */
+public class Batcher<K, V> {
+
+    private final Function<? super Collection<K>, ? extends CompletionStage<? extends Map<K, ? extends V>>> batchFunction;
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private TimerWheel timer = TimerWheel.getShared();
+
+    // Guarded by this
+    private Batch batch;
+
+    /**
+     * @param batchFunction looks up every key, completing with a map of the
+     *                      values found. Keys missing from the map complete
+     *                      with null.
+     * @param maxBatchSize  keys in a batch before it is sent without waiting
+     *                      for the rest of the window
+     * @param window        how long to wait for more keys after the first
+     */
+    public Batcher(Function<? super Collection<K>, ? extends CompletionStage<? extends Map<K, ? extends V>>> batchFunction,
+                   int maxBatchSize, long window, TimeUnit unit) {
+        if (maxBatchSize <= 0 || window < 0) {
+            throw new IllegalArgumentException("Invalid batching: " + maxBatchSize + " keys, " + window + " " + unit);
+        }
+        this.batchFunction = batchFunction;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = unit.toNanos(window);
+    }
+
+    /**
+     * Timer used for the window, the shared timer by default.
+     */
+    public void setTimer(TimerWheel timer) {
+        this.timer = timer;
+    }
+
+    public CompletableFuture<V> load(K key) {
+        CompletableFuture<V> future = inFlight.get(key);
+        if (future != null) {
+            return future;
+        }
+        Batch full = null;
+        synchronized (this) {
+            // Checked again now that no batch can be sent
+            future = inFlight.get(key);
+            if (future != null) {
+                return future;
+            }
+            if (batch == null) {
+                batch = new Batch();
+                batch.timeout = timer.schedule(batch::send, windowNanos, TimeUnit.NANOSECONDS);
+            }
+            future = batch.keys.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                batch.keys.put(key, future);
+                if (batch.keys.size() >= maxBatchSize) {
+                    full = detach();
+                }
+            }
+        }
+        if (full != null) {
+            full.timeout.cancel();
+            full.dispatch();
+        }
+        return future;
+    }
+
+    /**
+     * Load every key, in the same order.
+     */
+    public List<CompletableFuture<V>> loadAll(Collection<? extends K> keys) {
+        List<CompletableFuture<V>> futures = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            futures.add(load(key));
+        }
+        return futures;
+    }
+
+    /**
+     * Send the current batch without waiting for the window to close.
+     */
+    public void flush() {
+        Batch batch;
+        synchronized (this) {
+            batch = detach();
+        }
+        if (batch != null) {
+            batch.timeout.cancel();
+            batch.dispatch();
+        }
+    }
+
+    /**
+     * Stop adding to the current batch. Its keys move to the in flight map
+     * at the same time, so later loads of them join it rather than start
+     * another batch.
+     */
+    private Batch detach() {
+        Batch detached = batch;
+        if (detached != null) {
+            batch = null;
+            inFlight.putAll(detached.keys);
+        }
+        return detached;
+    }
+
+    private class Batch {
+        final Map<K, CompletableFuture<V>> keys = new LinkedHashMap<>();
+        TimerWheel.Timeout timeout;
+
+        /**
+         * Called by the timer when the window closes.
+         */
+        void send() {
+            synchronized (Batcher.this) {
+                if (batch != this) {
+                    // Already sent when it filled up or was flushed
+                    return;
+                }
+                detach();
+            }
+            dispatch();
+        }
+
+        /**
+         * Only called once the batch is no longer current, so nothing else
+         * touches the keys.
+         */
+        void dispatch() {
+            try {
+                CompletionStage<? extends Map<K, ? extends V>> result = batchFunction.apply(Collections.unmodifiableSet(keys.keySet()));
+                if (result == null) {
+                    throw new NullPointerException("Batch function returned null");
+                }
+                result.whenComplete(this::complete);
+            } catch (Throwable th) {
+                complete(null, th);
+            }
+        }
+
+        private void complete(Map<K, ? extends V> values, Throwable th) {
+            for (Map.Entry<K, CompletableFuture<V>> entry : keys.entrySet()) {
+                K key = entry.getKey();
+                CompletableFuture<V> future = entry.getValue();
+                inFlight.remove(key, future);
+                if (th != null) {
+                    future.completeExceptionally(th);
+                } else {
+                    future.complete(values == null ? null : values.get(key));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package spullara.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Combinators for futures: collecting many and looping over them.
+ */
+public class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * A future of every result, in the same order as the futures. Fails
+     * with the first failure once every future is done, like allOf().
+     */
+    public static <T> CompletableFuture<List<T>> collect(Collection<? extends CompletableFuture<? extends T>> futures) {
+        return collect(futures, false);
+    }
+
+    /**
+     * A future of every result, in the same order as the futures. Rather
+     * than building allOf()'s tree of intermediate futures and joining each
+     * future again afterwards, each result is written straight into an
+     * array and a single counter tracks how many are left. Futures that are
+     * already done are read without registering a callback.
+     *
+     * @param failFast fail as soon as any future fails instead of waiting
+     *                 for the rest
+     */
+    public static <T> CompletableFuture<List<T>> collect(Collection<? extends CompletableFuture<? extends T>> futures, boolean failFast) {
+        Collector<T> collector = new Collector<>(futures.size(), failFast);
+        int index = 0;
+        for (CompletableFuture<? extends T> future : futures) {
+            if (failFast && collector.isDone()) break;
+            collector.add(index++, future);
+        }
+        return collector;
+    }
+
+    /**
+     * Futures that complete in the order the given futures do: the first
+     * with the first result or failure, the second with the second and so
+     * on. Consuming them in order yields results as soon as each arrives.
+     */
+    public static <T> List<CompletableFuture<T>> inCompletionOrder(Collection<? extends CompletableFuture<? extends T>> futures) {
+        List<CompletableFuture<T>> ordered = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            ordered.add(new CompletableFuture<>());
+        }
+        AtomicInteger next = new AtomicInteger();
+        // Doesn't depend on which future completed, so one is shared by all
+        BiConsumer<T, Throwable> completer = (value, th) -> {
+            CompletableFuture<T> slot = ordered.get(next.getAndIncrement());
+            if (th == null) {
+                slot.complete(value);
+            } else {
+                slot.completeExceptionally(th);
+            }
+        };
+        for (CompletableFuture<? extends T> future : futures) {
+            future.whenComplete(completer);
+        }
+        return ordered;
+    }
+
+    /**
+     * Run the body for as long as the condition holds, waiting for the
+     * future each run returns before checking the condition again. Fails
+     * with the first failure of the body.
+     */
+    @SuppressWarnings("unchecked")
+    public static CompletableFuture<Void> whileAsync(BooleanSupplier condition, Supplier<? extends CompletionStage<?>> body) {
+        Loop<Object> loop = new Loop<>(null, value -> condition.getAsBoolean(), value -> body.get(), true);
+        loop.run();
+        return (CompletableFuture<Void>) (CompletableFuture<?>) loop;
+    }
+
+    /**
+     * Starting from the seed, replace the value with the result of the step
+     * for as long as the condition holds, completing with the last value.
+     *
+     * Iterations whose futures are already complete run in a loop rather
+     * than recursing, so any number of them take constant stack. When a
+     * future isn't complete the loop continues on the thread that
+     * completes it, without a hop to an executor.
+     */
+    public static <T> CompletableFuture<T> iterate(T seed, Predicate<? super T> condition,
+                                                   Function<? super T, ? extends CompletionStage<? extends T>> step) {
+        Loop<T> loop = new Loop<>(seed, condition, step, false);
+        loop.run();
+        return loop;
+    }
+
+    private static class Loop<T> extends CompletableFuture<T> implements BiConsumer<T, Throwable> {
+        private static final int RUNNING = 0;
+        private static final int SYNC = 1;
+        private static final int ASYNC = 2;
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Loop> WAITING =
+                AtomicIntegerFieldUpdater.newUpdater(Loop.class, "waiting");
+
+        private final Predicate<? super T> condition;
+        private final Function<? super T, ? extends CompletionStage<? extends T>> step;
+        private final boolean discard;
+        private T value;
+        // Whether the step completed before or after run() gave up waiting
+        private volatile int waiting;
+
+        Loop(T seed, Predicate<? super T> condition, Function<? super T, ? extends CompletionStage<? extends T>> step, boolean discard) {
+            this.value = seed;
+            this.condition = condition;
+            this.step = step;
+            this.discard = discard;
+        }
+
+        @SuppressWarnings("unchecked")
+        void run() {
+            try {
+                while (!isDone()) {
+                    if (!condition.test(value)) {
+                        complete(discard ? null : value);
+                        return;
+                    }
+                    CompletionStage<? extends T> next = step.apply(value);
+                    if (next instanceof CompletableFuture && ((CompletableFuture<?>) next).isDone()) {
+                        CompletableFuture<? extends T> done = (CompletableFuture<? extends T>) next;
+                        if (done.isCompletedExceptionally()) {
+                            done.whenComplete(this);
+                            return;
+                        }
+                        value = done.join();
+                        continue;
+                    }
+                    waiting = RUNNING;
+                    ((CompletionStage<T>) next).whenComplete(this);
+                    if (WAITING.compareAndSet(this, RUNNING, ASYNC)) {
+                        // accept() will pick up from here
+                        return;
+                    }
+                }
+            } catch (Throwable th) {
+                completeExceptionally(th);
+            }
+        }
+
+        @Override
+        public void accept(T result, Throwable th) {
+            if (th != null) {
+                completeExceptionally(th);
+                return;
+            }
+            value = result;
+            if (!WAITING.compareAndSet(this, RUNNING, SYNC)) {
+                run();
+            }
+        }
+    }
+
+    private static class Collector<T> extends CompletableFuture<List<T>> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Collector> REMAINING =
+                AtomicIntegerFieldUpdater.newUpdater(Collector.class, "remaining");
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Collector, Throwable> FAILURE =
+                AtomicReferenceFieldUpdater.newUpdater(Collector.class, Throwable.class, "failure");
+
+        private final Object[] results;
+        private final boolean failFast;
+        private volatile int remaining;
+        private volatile Throwable failure;
+
+        Collector(int size, boolean failFast) {
+            results = new Object[size];
+            this.failFast = failFast;
+            remaining = size;
+            if (size == 0) {
+                complete(new ArrayList<>());
+            }
+        }
+
+        void add(int index, CompletableFuture<? extends T> future) {
+            if (future.isDone()) {
+                Object value = null;
+                Throwable th = null;
+                try {
+                    value = future.join();
+                } catch (CompletionException | CancellationException e) {
+                    th = e;
+                }
+                done(index, value, th);
+            } else {
+                future.whenComplete((value, th) -> done(index, value, th));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void done(int index, Object value, Throwable th) {
+            if (th != null) {
+                if (failFast) {
+                    completeExceptionally(th);
+                } else {
+                    FAILURE.compareAndSet(this, null, th);
+                }
+            } else {
+                results[index] = value;
+            }
+            // The decrement publishes the result to whoever sees zero
+            if (REMAINING.decrementAndGet(this) == 0) {
+                Throwable failure = this.failure;
+                if (failure == null) {
+                    complete((List<T>) Arrays.asList(results));
+                } else {
+                    completeExceptionally(failure);
+                }
+            }
+        }
+    }
+}
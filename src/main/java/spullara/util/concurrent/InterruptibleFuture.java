@@ -0,0 +1,390 @@
+package spullara.util.concurrent;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A CompletableFuture that passes interrupts back up to the futures it was
+ * derived from. Cancelling a plain CompletableFuture only completes that
+ * future, leaving the work that would have completed it running. Cancelling
+ * or raising on one of these is signalled to the futures it came from
+ * through thenApply(), thenCompose(), thenCombine() and the other methods
+ * overridden here, all the way back to the tasks started with supplyAsync(),
+ * which are interrupted if running and skipped if not yet started.
+ *
+ * Plain CompletableFutures that are linked, like the other side of a
+ * thenCombine(), are cancelled or completed exceptionally with the signal.
+ * Methods that aren't overridden return plain CompletableFutures that don't
+ * propagate interrupts.
+ */
+public class InterruptibleFuture<T> extends CompletableFuture<T> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<InterruptibleFuture, Object> INTERRUPT =
+            AtomicReferenceFieldUpdater.newUpdater(InterruptibleFuture.class, Object.class, "interrupt");
+
+    // Null, a future or Consumer to signal when raised, or once raised the
+    // Raised signal
+    private volatile Object interrupt;
+
+    public InterruptibleFuture() {
+    }
+
+    private InterruptibleFuture(CompletableFuture<?> linked) {
+        INTERRUPT.lazySet(this, linked);
+    }
+
+    /**
+     * A future completed with the other future's result that cancels it
+     * when raised.
+     */
+    public static <T> InterruptibleFuture<T> from(CompletableFuture<T> future) {
+        if (future instanceof InterruptibleFuture) {
+            return (InterruptibleFuture<T>) future;
+        }
+        return relay(future, new InterruptibleFuture<>(future));
+    }
+
+    public static <T> InterruptibleFuture<T> supplyAsync(Supplier<T> supplier) {
+        return supplyAsync(supplier, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Run the supplier on the executor. If the future is raised before the
+     * supplier starts it never runs, and if it is running its thread is
+     * interrupted. Either way the future fails with the signal.
+     */
+    public static <T> InterruptibleFuture<T> supplyAsync(Supplier<T> supplier, Executor executor) {
+        InterruptibleFuture<T> future = new InterruptibleFuture<>();
+        Task<T> task = new Task<>(future, supplier);
+        future.onRaise(task::interrupt);
+        executor.execute(task);
+        return future;
+    }
+
+    public static InterruptibleFuture<Void> runAsync(Runnable runnable) {
+        return runAsync(runnable, ForkJoinPool.commonPool());
+    }
+
+    public static InterruptibleFuture<Void> runAsync(Runnable runnable, Executor executor) {
+        return supplyAsync(() -> {
+            runnable.run();
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Handle signals raised on this future, typically by stopping the work
+     * that would complete it. A handler added after a signal was raised is
+     * called immediately.
+     */
+    public InterruptibleFuture<T> onRaise(Consumer<Throwable> handler) {
+        addInterrupt(handler);
+        return this;
+    }
+
+    /**
+     * Signal this future's raise handlers and linked futures, unless it is
+     * already complete. Only the first signal is delivered.
+     */
+    public void raise(Throwable th) {
+        if (!isDone()) {
+            signal(th);
+        }
+    }
+
+    /**
+     * Forward signals raised on this future to the other one.
+     */
+    public void link(CompletableFuture<?> future) {
+        addInterrupt(future);
+    }
+
+    /**
+     * Cancel this future and raise a CancellationException to the futures
+     * it depends on.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            signal(new CancellationException());
+        }
+        return cancelled;
+    }
+
+    @Override
+    public <U> InterruptibleFuture<U> thenApply(Function<? super T, ? extends U> fn) {
+        return derive(super.thenApply(fn));
+    }
+
+    @Override
+    public <U> InterruptibleFuture<U> thenApplyAsync(Function<? super T, ? extends U> fn) {
+        return derive(super.thenApplyAsync(fn));
+    }
+
+    @Override
+    public <U> InterruptibleFuture<U> thenApplyAsync(Function<? super T, ? extends U> fn, Executor executor) {
+        return derive(super.thenApplyAsync(fn, executor));
+    }
+
+    @Override
+    public InterruptibleFuture<Void> thenAccept(Consumer<? super T> action) {
+        return derive(super.thenAccept(action));
+    }
+
+    @Override
+    public InterruptibleFuture<Void> thenAcceptAsync(Consumer<? super T> action) {
+        return derive(super.thenAcceptAsync(action));
+    }
+
+    @Override
+    public InterruptibleFuture<Void> thenAcceptAsync(Consumer<? super T> action, Executor executor) {
+        return derive(super.thenAcceptAsync(action, executor));
+    }
+
+    @Override
+    public InterruptibleFuture<Void> thenRun(Runnable action) {
+        return derive(super.thenRun(action));
+    }
+
+    @Override
+    public InterruptibleFuture<Void> thenRunAsync(Runnable action) {
+        return derive(super.thenRunAsync(action));
+    }
+
+    @Override
+    public InterruptibleFuture<Void> thenRunAsync(Runnable action, Executor executor) {
+        return derive(super.thenRunAsync(action, executor));
+    }
+
+    @Override
+    public <U, V> InterruptibleFuture<V> thenCombine(CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn) {
+        return derive(super.thenCombine(other, fn), other);
+    }
+
+    @Override
+    public <U, V> InterruptibleFuture<V> thenCombineAsync(CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn) {
+        return derive(super.thenCombineAsync(other, fn), other);
+    }
+
+    @Override
+    public <U, V> InterruptibleFuture<V> thenCombineAsync(CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn, Executor executor) {
+        return derive(super.thenCombineAsync(other, fn, executor), other);
+    }
+
+    /**
+     * Raising the returned future also raises the stage fn returns, once
+     * there is one.
+     */
+    @Override
+    public <U> InterruptibleFuture<U> thenCompose(Function<? super T, ? extends CompletionStage<U>> fn) {
+        InterruptibleFuture<U> composed = new InterruptibleFuture<>(this);
+        return relay(super.thenCompose(linking(fn, composed)), composed);
+    }
+
+    @Override
+    public <U> InterruptibleFuture<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn) {
+        InterruptibleFuture<U> composed = new InterruptibleFuture<>(this);
+        return relay(super.thenComposeAsync(linking(fn, composed)), composed);
+    }
+
+    @Override
+    public <U> InterruptibleFuture<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn, Executor executor) {
+        InterruptibleFuture<U> composed = new InterruptibleFuture<>(this);
+        return relay(super.thenComposeAsync(linking(fn, composed), executor), composed);
+    }
+
+    @Override
+    public InterruptibleFuture<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
+        return derive(super.whenComplete(action));
+    }
+
+    @Override
+    public InterruptibleFuture<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action) {
+        return derive(super.whenCompleteAsync(action));
+    }
+
+    @Override
+    public InterruptibleFuture<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action, Executor executor) {
+        return derive(super.whenCompleteAsync(action, executor));
+    }
+
+    @Override
+    public <U> InterruptibleFuture<U> handle(BiFunction<? super T, Throwable, ? extends U> fn) {
+        return derive(super.handle(fn));
+    }
+
+    @Override
+    public <U> InterruptibleFuture<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn) {
+        return derive(super.handleAsync(fn));
+    }
+
+    @Override
+    public <U> InterruptibleFuture<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn, Executor executor) {
+        return derive(super.handleAsync(fn, executor));
+    }
+
+    @Override
+    public InterruptibleFuture<T> exceptionally(Function<Throwable, ? extends T> fn) {
+        return derive(super.exceptionally(fn));
+    }
+
+    private <U> InterruptibleFuture<U> derive(CompletableFuture<U> future) {
+        return relay(future, new InterruptibleFuture<>(this));
+    }
+
+    private <U> InterruptibleFuture<U> derive(CompletableFuture<U> future, CompletionStage<?> other) {
+        InterruptibleFuture<U> derived = new InterruptibleFuture<>(this);
+        if (other instanceof CompletableFuture) {
+            derived.link((CompletableFuture<?>) other);
+        }
+        return relay(future, derived);
+    }
+
+    private static <U> InterruptibleFuture<U> relay(CompletableFuture<U> future, InterruptibleFuture<U> to) {
+        future.whenComplete((value, th) -> {
+            if (th == null) {
+                to.complete(value);
+            } else {
+                to.completeExceptionally(th);
+            }
+        });
+        return to;
+    }
+
+    private static <T, U> Function<T, CompletionStage<U>> linking(Function<? super T, ? extends CompletionStage<U>> fn,
+                                                                  InterruptibleFuture<U> composed) {
+        return value -> {
+            CompletionStage<U> next = fn.apply(value);
+            if (next instanceof CompletableFuture) {
+                composed.link((CompletableFuture<?>) next);
+            }
+            return next;
+        };
+    }
+
+    private void signal(Throwable th) {
+        Object current;
+        do {
+            current = interrupt;
+            if (current instanceof Raised) {
+                return;
+            }
+        } while (!INTERRUPT.compareAndSet(this, current, new Raised(th)));
+        signal(current, th);
+    }
+
+    private void addInterrupt(Object handler) {
+        Object current;
+        Object next;
+        do {
+            current = interrupt;
+            if (current instanceof Raised) {
+                signal(handler, ((Raised) current).signal);
+                return;
+            }
+            next = current == null ? handler : new Both(current, handler);
+        } while (!INTERRUPT.compareAndSet(this, current, next));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void signal(Object handler, Throwable th) {
+        if (handler instanceof InterruptibleFuture) {
+            ((InterruptibleFuture<?>) handler).raise(th);
+        } else if (handler instanceof CompletableFuture) {
+            CompletableFuture<?> future = (CompletableFuture<?>) handler;
+            if (th instanceof CancellationException) {
+                future.cancel(true);
+            } else {
+                future.completeExceptionally(th);
+            }
+        } else if (handler != null) {
+            ((Consumer<Throwable>) handler).accept(th);
+        }
+    }
+
+    private static class Raised {
+        final Throwable signal;
+
+        Raised(Throwable signal) {
+            this.signal = signal;
+        }
+    }
+
+    /**
+     * Two interrupt handlers, each a future, Consumer or another Both.
+     */
+    private static class Both implements Consumer<Throwable> {
+        private final Object first;
+        private final Object second;
+
+        Both(Object first, Object second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        public void accept(Throwable th) {
+            signal(first, th);
+            signal(second, th);
+        }
+    }
+
+    /**
+     * Runs the supplier unless interrupted first. The lock makes sure the
+     * runner is only interrupted while it is running the supplier, never
+     * after it has moved on to another task.
+     */
+    private static class Task<T> implements Runnable {
+        private final InterruptibleFuture<T> future;
+        private final Supplier<T> supplier;
+        private Thread runner;
+        private boolean interrupted;
+
+        Task(InterruptibleFuture<T> future, Supplier<T> supplier) {
+            this.future = future;
+            this.supplier = supplier;
+        }
+
+        public void run() {
+            synchronized (this) {
+                if (interrupted) {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable th) {
+                future.completeExceptionally(th);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    if (interrupted) {
+                        // Don't leave the pool thread interrupted
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+
+        void interrupt(Throwable th) {
+            synchronized (this) {
+                interrupted = true;
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+            future.completeExceptionally(th);
+        }
+    }
+}
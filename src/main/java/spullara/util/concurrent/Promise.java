@@ -0,0 +1,555 @@
+package spullara.util.concurrent;
+
+import spullara.util.Pair;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A value that will be set later, with callbacks in the style of Twitter's
+ * futures. Callbacks run on the thread that sets the promise, or on the
+ * calling thread if it is already set.
+ *
+ * All of the state is in one word that is changed with a single CAS. While
+ * pending it is the most recently added callback, and callbacks link to
+ * the one added before them, so the usual single callback allocates
+ * nothing beyond itself. Once set it is the value itself, so successful
+ * promises don't allocate a result holder either.
+ *
+ * Promises derived from this one with map(), flatMap() and the rest are
+ * linked to it, so raise() on the end of a chain, usually to cancel it,
+ * is signalled back to the promises it came from.
+ */
+public class Promise<T> implements Future<T> {
+
+    private static final Object NIL = new Object();
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Promise, Object> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Promise.class, Object.class, "state");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Promise, Object> INTERRUPT =
+            AtomicReferenceFieldUpdater.newUpdater(Promise.class, Object.class, "interrupt");
+
+    // Null or a Listener while pending, otherwise the value, NIL for null,
+    // or a Failure
+    private volatile Object state;
+
+    // Null, a Promise or Consumer to signal when raised, or once raised
+    // the Raised signal
+    private volatile Object interrupt;
+
+    public Promise() {
+    }
+
+    private Promise(Promise<?> linked) {
+        // Safely published along with the promise itself
+        INTERRUPT.lazySet(this, linked);
+    }
+
+    public static <T> Promise<T> of(T value) {
+        Promise<T> promise = new Promise<>();
+        STATE.lazySet(promise, value == null ? NIL : value);
+        return promise;
+    }
+
+    public static <T> Promise<T> failed(Throwable th) {
+        Promise<T> promise = new Promise<>();
+        STATE.lazySet(promise, new Failure(th));
+        return promise;
+    }
+
+    /**
+     * Run the callable on the executor, setting the promise to its result.
+     */
+    public static <T> Promise<T> execute(Executor executor, Callable<T> callable) {
+        Promise<T> promise = new Promise<>();
+        executor.execute(() -> {
+            if (!promise.isDone()) {
+                try {
+                    promise.set(callable.call());
+                } catch (Throwable th) {
+                    promise.setException(th);
+                }
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * Returns false if the promise was already set.
+     */
+    public boolean set(T value) {
+        return complete(value == null ? NIL : value);
+    }
+
+    public boolean setException(Throwable th) {
+        return complete(new Failure(th));
+    }
+
+    public boolean isDone() {
+        return isDone(state);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        Object state = this.state;
+        return state instanceof Failure && ((Failure) state).cause instanceof CancellationException;
+    }
+
+    /**
+     * Raise a CancellationException to the linked promises and fail this one
+     * with it.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        CancellationException ce = new CancellationException();
+        raise(ce);
+        return setException(ce);
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        Object state = this.state;
+        if (!isDone(state)) {
+            Waiter waiter = new Waiter();
+            addListener(waiter);
+            while (!isDone(state = this.state)) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    removeWaiter(waiter);
+                    throw new InterruptedException();
+                }
+            }
+        }
+        return report(state);
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        Object state = this.state;
+        if (!isDone(state)) {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            Waiter waiter = new Waiter();
+            addListener(waiter);
+            while (!isDone(state = this.state)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    removeWaiter(waiter);
+                    throw new TimeoutException();
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    removeWaiter(waiter);
+                    throw new InterruptedException();
+                }
+            }
+        }
+        return report(state);
+    }
+
+    /**
+     * A promise of the mapper applied to the value, or of the same failure.
+     */
+    public <V> Promise<V> map(Function<? super T, ? extends V> mapper) {
+        Object state = this.state;
+        if (isDone(state)) {
+            // Nothing else can see the new promise yet, so it can be set
+            // without a listener or a CAS
+            Promise<V> mapped = new Promise<>();
+            STATE.lazySet(mapped, apply(mapper, state));
+            return mapped;
+        }
+        Promise<V> mapped = new Promise<>(this);
+        addListener(new Listener() {
+            void complete(Object state) {
+                mapped.complete(apply(mapper, state));
+            }
+        });
+        return mapped;
+    }
+
+    /**
+     * The state of a promise of the mapper applied to the value of this
+     * state.
+     */
+    private Object apply(Function<? super T, ?> mapper, Object state) {
+        if (state instanceof Failure) {
+            return state;
+        }
+        try {
+            Object value = mapper.apply(value(state));
+            return value == null ? NIL : value;
+        } catch (Throwable th) {
+            return new Failure(th);
+        }
+    }
+
+    /**
+     * A promise of the result of the promise the mapper returns for the
+     * value. Raising it signals the returned promise as well as this one.
+     */
+    public <V> Promise<V> flatMap(Function<? super T, Promise<V>> mapper) {
+        Promise<V> mapped = new Promise<>(this);
+        addListener(new Listener() {
+            void complete(Object state) {
+                if (state instanceof Failure) {
+                    mapped.complete(state);
+                    return;
+                }
+                Promise<V> next;
+                try {
+                    next = mapper.apply(value(state));
+                } catch (Throwable th) {
+                    mapped.setException(th);
+                    return;
+                }
+                if (next == null) {
+                    mapped.setException(new NullPointerException("flatMap returned null"));
+                    return;
+                }
+                mapped.link(next);
+                next.addListener(new Forward(mapped));
+            }
+        });
+        return mapped;
+    }
+
+    /**
+     * A promise of both values, failing as soon as either fails.
+     */
+    public <B> Promise<Pair<T, B>> join(Promise<B> other) {
+        Promise<Pair<T, B>> joined = new Promise<>(this);
+        joined.link(other);
+        Listener both = new Listener() {
+            void complete(Object ignored) {
+                Object a = Promise.this.state, b = other.state;
+                if (a instanceof Failure) {
+                    joined.complete(a);
+                } else if (b instanceof Failure) {
+                    joined.complete(b);
+                } else if (isDone(a) && isDone(b)) {
+                    joined.set(Pair.of(value(a), other.value(b)));
+                }
+            }
+        };
+        addListener(both);
+        other.addListener(new Listener() {
+            void complete(Object state) {
+                both.complete(state);
+            }
+        });
+        return joined;
+    }
+
+    /**
+     * A promise of whichever of this and the other promise is set first.
+     */
+    public Promise<T> select(Promise<T> other) {
+        Promise<T> selected = new Promise<>(this);
+        selected.link(other);
+        addListener(new Forward(selected));
+        other.addListener(new Forward(selected));
+        return selected;
+    }
+
+    public Promise<T> onSuccess(Consumer<? super T> consumer) {
+        addListener(new Listener() {
+            void complete(Object state) {
+                if (!(state instanceof Failure)) {
+                    try {
+                        consumer.accept(value(state));
+                    } catch (Throwable th) {
+                        uncaught(th);
+                    }
+                }
+            }
+        });
+        return this;
+    }
+
+    public Promise<T> onFailure(Consumer<Throwable> consumer) {
+        addListener(new Listener() {
+            void complete(Object state) {
+                if (state instanceof Failure) {
+                    try {
+                        consumer.accept(((Failure) state).cause);
+                    } catch (Throwable th) {
+                        uncaught(th);
+                    }
+                }
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Run the runnable once the promise is set either way.
+     */
+    public Promise<T> ensure(Runnable runnable) {
+        addListener(new Listener() {
+            void complete(Object state) {
+                try {
+                    runnable.run();
+                } catch (Throwable th) {
+                    uncaught(th);
+                }
+            }
+        });
+        return this;
+    }
+
+    /**
+     * A promise of the value, or if this fails of the rescuer applied to the
+     * failure.
+     */
+    public Promise<T> rescue(Function<Throwable, ? extends T> rescuer) {
+        Promise<T> rescued = new Promise<>(this);
+        addListener(new Listener() {
+            void complete(Object state) {
+                if (state instanceof Failure) {
+                    try {
+                        rescued.set(rescuer.apply(((Failure) state).cause));
+                    } catch (Throwable th) {
+                        rescued.setException(th);
+                    }
+                } else {
+                    rescued.complete(state);
+                }
+            }
+        });
+        return rescued;
+    }
+
+    /**
+     * Handle signals raised on this promise, typically by stopping the work
+     * that would set it. A handler added after a signal was raised is called
+     * immediately.
+     */
+    public Promise<T> onRaise(Consumer<Throwable> handler) {
+        addInterrupt(handler);
+        return this;
+    }
+
+    /**
+     * Signal this promise's raise handlers and linked promises, unless it is
+     * already set. Only the first signal is delivered.
+     */
+    public void raise(Throwable th) {
+        if (isDone()) {
+            return;
+        }
+        Object current;
+        do {
+            current = interrupt;
+            if (current instanceof Raised) {
+                return;
+            }
+        } while (!INTERRUPT.compareAndSet(this, current, new Raised(th)));
+        signal(current, th);
+    }
+
+    /**
+     * Forward signals raised on this promise to the other promise.
+     */
+    public void link(Promise<?> promise) {
+        addInterrupt(promise);
+    }
+
+    @Override
+    public String toString() {
+        Object state = this.state;
+        return "Promise[" + (!isDone(state) ? "pending" : state instanceof Failure ? "failed: " + ((Failure) state).cause : value(state)) + "]";
+    }
+
+    private boolean complete(Object result) {
+        Object current;
+        do {
+            current = state;
+            if (isDone(current)) {
+                return false;
+            }
+        } while (!STATE.compareAndSet(this, current, result));
+        // Listeners are stacked newest first, run them in the order added
+        Listener reversed = null;
+        for (Listener listener = (Listener) current; listener != null; ) {
+            Listener next = listener.next;
+            listener.next = reversed;
+            reversed = listener;
+            listener = next;
+        }
+        for (Listener listener = reversed; listener != null; listener = listener.next) {
+            run(listener, result);
+        }
+        return true;
+    }
+
+    /**
+     * Run a listener, making sure it can't stop the ones after it or throw
+     * into whoever set the promise.
+     */
+    private static void run(Listener listener, Object state) {
+        try {
+            listener.complete(state);
+        } catch (Throwable th) {
+            uncaught(th);
+        }
+    }
+
+    private void addListener(Listener listener) {
+        Object current;
+        do {
+            current = state;
+            if (isDone(current)) {
+                run(listener, current);
+                return;
+            }
+            listener.next = (Listener) current;
+        } while (!STATE.compareAndSet(this, current, listener));
+    }
+
+    /**
+     * Take a waiter that gave up off the stack, along with any others that
+     * gave up above it. Only the top is changed, so as not to race with
+     * complete() reversing the stack. One buried under a listener added
+     * while it waited stays until the promise is set, so there are never
+     * more of them than other listeners.
+     */
+    private void removeWaiter(Waiter waiter) {
+        waiter.thread = null;
+        Object current;
+        Listener top;
+        do {
+            current = state;
+            if (isDone(current)) {
+                return;
+            }
+            top = (Listener) current;
+            while (top instanceof Waiter && ((Waiter) top).thread == null) {
+                top = top.next;
+            }
+        } while (top != current && !STATE.compareAndSet(this, current, top));
+    }
+
+    private void addInterrupt(Object handler) {
+        Object current;
+        Object next;
+        do {
+            current = interrupt;
+            if (current instanceof Raised) {
+                signal(handler, ((Raised) current).signal);
+                return;
+            }
+            next = current == null ? handler : new Both(current, handler);
+        } while (!INTERRUPT.compareAndSet(this, current, next));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void signal(Object handler, Throwable th) {
+        if (handler instanceof Promise) {
+            ((Promise<?>) handler).raise(th);
+        } else if (handler != null) {
+            ((Consumer<Throwable>) handler).accept(th);
+        }
+    }
+
+    private static boolean isDone(Object state) {
+        return state != null && !(state instanceof Listener);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T value(Object state) {
+        return state == NIL ? null : (T) state;
+    }
+
+    private T report(Object state) throws ExecutionException {
+        if (state instanceof Failure) {
+            Throwable cause = ((Failure) state).cause;
+            if (cause instanceof CancellationException) {
+                throw (CancellationException) cause;
+            }
+            throw new ExecutionException(cause);
+        }
+        return value(state);
+    }
+
+    private static void uncaught(Throwable th) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, th);
+    }
+
+    /**
+     * A callback, linked to the one added before it while the promise is
+     * pending.
+     */
+    private static abstract class Listener {
+        Listener next;
+
+        abstract void complete(Object state);
+    }
+
+    private static class Forward extends Listener {
+        private final Promise<?> promise;
+
+        Forward(Promise<?> promise) {
+            this.promise = promise;
+        }
+
+        void complete(Object state) {
+            promise.complete(state);
+        }
+    }
+
+    private static class Waiter extends Listener {
+        // Null once it has given up
+        volatile Thread thread = Thread.currentThread();
+
+        void complete(Object state) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private static class Failure {
+        final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    private static class Raised {
+        final Throwable signal;
+
+        Raised(Throwable signal) {
+            this.signal = signal;
+        }
+    }
+
+    /**
+     * Two interrupt handlers, each a Promise, Consumer or another Both.
+     */
+    private static class Both implements Consumer<Throwable> {
+        private final Object first;
+        private final Object second;
+
+        Both(Object first, Object second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        public void accept(Throwable th) {
+            signal(first, th);
+            signal(second, th);
+        }
+    }
+}
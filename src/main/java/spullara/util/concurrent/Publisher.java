@@ -0,0 +1,10 @@
+package spullara.util.concurrent;
+
+/**
+ * Source of a demand driven stream of items. Mirrors the Reactive Streams
+ * interfaces that became java.util.concurrent.Flow, which isn't available
+ * on Java 8.
+ */
+public interface Publisher<T> {
+    void subscribe(Subscriber<? super T> subscriber);
+}
@@ -0,0 +1,15 @@
+package spullara.util.concurrent;
+
+/**
+ * Receives items from a Publisher, no more than it has requested through
+ * its Subscription.
+ */
+public interface Subscriber<T> {
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable th);
+
+    void onComplete();
+}
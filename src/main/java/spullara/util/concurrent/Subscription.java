@@ -0,0 +1,10 @@
+package spullara.util.concurrent;
+
+/**
+ * Link between a Publisher and a Subscriber used to signal demand.
+ */
+public interface Subscription {
+    void request(long n);
+
+    void cancel();
+}
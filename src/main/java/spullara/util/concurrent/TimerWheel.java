@@ -0,0 +1,213 @@
+package spullara.util.concurrent;
+
+import spullara.util.Lazy;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import static spullara.util.Lazy.lazy;
+
+/**
+ * Hashed timer wheel for large numbers of timeouts that are usually
+ * cancelled before they fire, like I/O deadlines. Scheduling and
+ * cancelling are a queue offer and a CAS, and a single thread advances the
+ * wheel one tick at a time, so timeouts fire up to a tick late.
+ *
+ * Expired tasks run on the timer thread and must not block. Anything they
+ * throw goes to the timer thread's uncaught exception handler.
+ */
+public class TimerWheel {
+
+    private static final Lazy<TimerWheel> SHARED = lazy(() -> new TimerWheel(10, TimeUnit.MILLISECONDS, 512));
+
+    private final long tickNanos;
+    private final int mask;
+    private final Bucket[] wheel;
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final long start = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean stopped;
+
+    // Owned by the worker
+    private long tick;
+
+    /**
+     * @param tickDuration resolution of the timer
+     * @param wheelSize    number of buckets, rounded up to a power of two
+     */
+    public TimerWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0 || wheelSize <= 0 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("Invalid timer wheel: " + tickDuration + " " + unit + " x " + wheelSize);
+        }
+        tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        if (size == 0) size = 1;
+        mask = size - 1;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        worker = new Thread(this::run, "TimerWheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Timer shared by everything that doesn't need its own, with a 10ms tick.
+     */
+    public static TimerWheel getShared() {
+        return SHARED.get();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - start + unit.toNanos(delay));
+        if (stopped) {
+            throw new IllegalStateException("Timer is stopped");
+        }
+        scheduled.offer(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the timer thread. Pending timeouts never fire.
+     */
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = tickNanos * (tick + 1);
+            long sleep;
+            while ((sleep = deadline - (System.nanoTime() - start)) > 0 && !stopped) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            removeCancelled();
+            transferScheduled();
+            wheel[(int) (tick & mask)].expire(tick);
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout timeout;
+        // Bounded so that a flood of new timeouts can't stall the wheel
+        for (int i = 0; i < 100000 && (timeout = scheduled.poll()) != null; i++) {
+            if (timeout.state != Timeout.PENDING) continue;
+            long ticks = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.expiresAt = ticks;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Handle to a scheduled task
+     */
+    public static class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimerWheel timer;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state;
+
+        // Owned by the worker
+        private long expiresAt;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimerWheel timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Returns false if the task has already run or been cancelled.
+         */
+        public boolean cancel() {
+            if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                timer.cancelled.offer(this);
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+    }
+
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+
+        void expire(long tick) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.expiresAt <= tick) {
+                    remove(timeout);
+                    if (Timeout.STATE.compareAndSet(timeout, Timeout.PENDING, Timeout.EXPIRED)) {
+                        try {
+                            timeout.task.run();
+                        } catch (Throwable th) {
+                            Thread thread = Thread.currentThread();
+                            thread.getUncaughtExceptionHandler().uncaughtException(thread, th);
+                        }
+                    }
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package spullara.util.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks on the calling thread, but never inside another of its tasks:
+ * a task submitted while one is running is queued and run once the
+ * running task returns. Passing it to the *Async methods of a future keeps
+ * continuations on the thread that completed the future, without a hop to
+ * a pool, while the stack stays flat however long the chain of already
+ * completed futures is.
+ */
+public final class Trampoline implements Executor {
+
+    private static final Trampoline INSTANCE = new Trampoline();
+
+    private final ThreadLocal<TaskQueue> queues = ThreadLocal.withInitial(TaskQueue::new);
+
+    private Trampoline() {
+    }
+
+    public static Trampoline getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        TaskQueue queue = queues.get();
+        if (queue.running) {
+            queue.tasks.add(task);
+            return;
+        }
+        queue.running = true;
+        try {
+            do {
+                try {
+                    task.run();
+                } catch (Throwable th) {
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, th);
+                }
+            } while ((task = queue.tasks.poll()) != null);
+        } finally {
+            queue.running = false;
+        }
+    }
+
+    /**
+     * Tasks waiting for the one running on this thread to return.
+     */
+    private static class TaskQueue {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        boolean running;
+    }
+}
@@ -0,0 +1,161 @@
+package spullara.nio.channels;
+
+import org.junit.Test;
+import spullara.util.concurrent.Subscriber;
+import spullara.util.concurrent.Subscription;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class AcceptPublisherTest {
+
+    static class Collector implements Subscriber<FutureSocketChannel> {
+        final BlockingQueue<FutureSocketChannel> accepted = new LinkedBlockingQueue<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        Subscription subscription;
+
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(FutureSocketChannel item) {
+            accepted.add(item);
+        }
+
+        public void onError(Throwable th) {
+            th.printStackTrace();
+        }
+
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+
+    private static FutureSocketChannel connect(FutureServerSocketChannel fssc) throws Exception {
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        return fsc;
+    }
+
+    @Test
+    public void testDemand() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        Collector collector = new Collector();
+        fssc.connections(10).subscribe(collector);
+        connect(fssc);
+        assertNull(collector.accepted.poll(100, TimeUnit.MILLISECONDS));
+        collector.subscription.request(1);
+        assertNotNull(collector.accepted.poll(1, TimeUnit.SECONDS));
+        connect(fssc);
+        assertNull(collector.accepted.poll(100, TimeUnit.MILLISECONDS));
+        collector.subscription.request(1);
+        assertNotNull(collector.accepted.poll(1, TimeUnit.SECONDS));
+        fssc.close();
+        assertTrue(collector.completed.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMaxConnections() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        Collector collector = new Collector();
+        AcceptPublisher connections = fssc.connections(2);
+        connections.subscribe(collector);
+        collector.subscription.request(Long.MAX_VALUE);
+        connect(fssc);
+        connect(fssc);
+        connect(fssc);
+        FutureSocketChannel first = collector.accepted.poll(1, TimeUnit.SECONDS);
+        assertNotNull(collector.accepted.poll(1, TimeUnit.SECONDS));
+        assertNull(collector.accepted.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, connections.getOpenConnections());
+        first.close();
+        assertNotNull(collector.accepted.poll(1, TimeUnit.SECONDS));
+        assertEquals(2, connections.getOpenConnections());
+        fssc.close();
+    }
+
+    @Test
+    public void testShed() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        Collector collector = new Collector();
+        fssc.connections(1, true).subscribe(collector);
+        collector.subscription.request(Long.MAX_VALUE);
+        connect(fssc);
+        assertNotNull(collector.accepted.poll(1, TimeUnit.SECONDS));
+        FutureSocketChannel shed = connect(fssc);
+        assertEquals(-1, (int) shed.read(ByteBuffer.allocate(1)).get(1, TimeUnit.SECONDS));
+        assertNull(collector.accepted.poll(100, TimeUnit.MILLISECONDS));
+        fssc.close();
+    }
+
+    @Test
+    public void testSignalsSerialized() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        AtomicInteger active = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        Collector collector = new Collector() {
+            public void onNext(FutureSocketChannel item) {
+                if (active.incrementAndGet() > 1) overlapped.set(true);
+                // Neither the re-entrant request nor the close may signal
+                // until this returns
+                subscription.request(1);
+                if (accepted.isEmpty()) fssc.close();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                accepted.add(item);
+                active.decrementAndGet();
+            }
+
+            public void onComplete() {
+                if (active.get() != 0) overlapped.set(true);
+                super.onComplete();
+            }
+        };
+        fssc.connections(10).subscribe(collector);
+        collector.subscription.request(1);
+        connect(fssc);
+        assertTrue(collector.completed.await(1, TimeUnit.SECONDS));
+        assertEquals(1, collector.accepted.size());
+        assertFalse(overlapped.get());
+    }
+
+    @Test
+    public void testOnNextThrows() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        IllegalStateException thrown = new IllegalStateException();
+        BlockingQueue<Throwable> errors = new LinkedBlockingQueue<>();
+        Collector collector = new Collector() {
+            public void onNext(FutureSocketChannel item) {
+                throw thrown;
+            }
+
+            public void onError(Throwable th) {
+                errors.add(th);
+            }
+        };
+        fssc.connections(10).subscribe(collector);
+        collector.subscription.request(Long.MAX_VALUE);
+        FutureSocketChannel client = connect(fssc);
+        assertSame(thrown, errors.poll(1, TimeUnit.SECONDS));
+        // The connection handed to the failed onNext was closed
+        assertEquals(-1, (int) client.read(ByteBuffer.allocate(1)).get(1, TimeUnit.SECONDS));
+        client.close();
+        fssc.close();
+    }
+}
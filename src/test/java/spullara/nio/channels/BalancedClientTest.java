@@ -0,0 +1,94 @@
+package spullara.nio.channels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class BalancedClientTest {
+
+    private final List<FutureServerSocketChannel> servers = new ArrayList<>();
+    private final List<InetSocketAddress> addresses = new ArrayList<>();
+    private final List<AtomicInteger> served = new ArrayList<>();
+    private final AtomicBoolean hangOnce = new AtomicBoolean(true);
+    private final CompletableFuture<CompletableFuture<ByteBuffer>> hung = new CompletableFuture<>();
+    private BalancedClient client;
+
+    @Before
+    public void setup() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            AtomicInteger count = new AtomicInteger();
+            FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+            // Echoes everything except the first "slow" request, which never completes
+            fssc.accept().thenAccept(fsc -> new MuxChannel(fsc, request -> {
+                count.incrementAndGet();
+                if (StandardCharsets.UTF_8.decode(request.duplicate()).toString().equals("slow") && hangOnce.getAndSet(false)) {
+                    CompletableFuture<ByteBuffer> response = new CompletableFuture<>();
+                    hung.complete(response);
+                    return response;
+                }
+                return CompletableFuture.completedFuture(request);
+            }));
+            servers.add(fssc);
+            served.add(count);
+            addresses.add(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort()));
+        }
+        client = new BalancedClient(addresses);
+    }
+
+    @After
+    public void teardown() {
+        client.close();
+        for (FutureServerSocketChannel server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testBalancesAndHedges() throws Exception {
+        assertEquals(0, client.getHedgeDelay(TimeUnit.NANOSECONDS));
+        for (int batch = 0; batch < 30; batch++) {
+            List<CompletableFuture<ByteBuffer>> responses = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                responses.add(client.request(StandardCharsets.UTF_8.encode("fast")));
+            }
+            for (CompletableFuture<ByteBuffer> response : responses) {
+                assertEquals("fast", StandardCharsets.UTF_8.decode(response.get(5, TimeUnit.SECONDS)).toString());
+            }
+        }
+        for (AtomicInteger count : served) {
+            assertTrue(count.get() > 100);
+        }
+        assertTrue(client.getHedgeDelay(TimeUnit.NANOSECONDS) > 0);
+
+        // Only the hedged copy of this request gets a response
+        ByteBuffer response = client.request(StandardCharsets.UTF_8.encode("slow")).get(5, TimeUnit.SECONDS);
+        assertEquals("slow", StandardCharsets.UTF_8.decode(response).toString());
+        CompletableFuture<ByteBuffer> loser = hung.get(5, TimeUnit.SECONDS);
+        CompletableFuture<Void> cancelled = new CompletableFuture<>();
+        loser.whenComplete((r, th) -> cancelled.complete(null));
+        cancelled.get(5, TimeUnit.SECONDS);
+        assertTrue(loser.isCancelled());
+        for (InetSocketAddress address : addresses) {
+            assertEquals(0, client.getOutstanding(address));
+        }
+    }
+
+    @Test
+    public void testNoHedging() throws Exception {
+        client.setHedgePercentile(0);
+        assertEquals("a", StandardCharsets.UTF_8.decode(client.request(StandardCharsets.UTF_8.encode("a")).get(5, TimeUnit.SECONDS)).toString());
+    }
+}
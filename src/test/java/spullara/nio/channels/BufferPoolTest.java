@@ -0,0 +1,106 @@
+package spullara.nio.channels;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testSizeClasses() {
+        BufferPool pool = new BufferPool(512, 8192, 4, 4);
+        assertEquals(512, pool.lease(0).capacity());
+        assertEquals(512, pool.lease(100).capacity());
+        assertEquals(1024, pool.lease(513).capacity());
+        assertEquals(8192, pool.lease(8192).capacity());
+        assertEquals(10000, pool.lease(10000).capacity());
+        assertTrue(pool.lease(100).isDirect());
+    }
+
+    @Test
+    public void testReuse() {
+        BufferPool pool = new BufferPool(512, 8192, 4, 4);
+        ByteBuffer buffer = pool.lease(1000);
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        ByteBuffer again = pool.lease(1000);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.limit());
+        assertNotSame(again, pool.lease(1000));
+    }
+
+    @Test
+    public void testSharedCache() throws Exception {
+        BufferPool pool = new BufferPool(512, 8192, 0, 4);
+        ByteBuffer buffer = pool.lease(512);
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        es.submit(() -> pool.release(buffer)).get();
+        es.shutdown();
+        es.awaitTermination(1, TimeUnit.SECONDS);
+        assertSame(buffer, pool.lease(512));
+    }
+
+    @Test
+    public void testReleasedByOtherThread() throws Exception {
+        BufferPool pool = new BufferPool(512, 8192, 4, 4);
+        ByteBuffer buffer = pool.lease(512);
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        // Never leases, so it doesn't keep the buffer for itself
+        es.submit(() -> pool.release(buffer)).get();
+        es.shutdown();
+        es.awaitTermination(1, TimeUnit.SECONDS);
+        assertSame(buffer, pool.lease(512));
+    }
+
+    @Test
+    public void testConcurrentSharedCache() throws Exception {
+        BufferPool pool = new BufferPool(512, 512, 0, 8);
+        Set<ByteBuffer> leased = Collections.newSetFromMap(new IdentityHashMap<>());
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(es.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    ByteBuffer buffer = pool.lease(512);
+                    synchronized (leased) {
+                        assertTrue(leased.add(buffer));
+                    }
+                    synchronized (leased) {
+                        leased.remove(buffer);
+                    }
+                    pool.release(buffer);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        es.shutdown();
+        assertTrue(leased.isEmpty());
+    }
+
+    @Test
+    public void testForeignBuffersIgnored() {
+        BufferPool pool = new BufferPool(512, 8192, 4, 4);
+        ByteBuffer heap = ByteBuffer.allocate(512);
+        pool.release(heap);
+        pool.release(ByteBuffer.allocateDirect(1000));
+        assertNotSame(heap, pool.lease(512));
+        assertEquals(1024, pool.lease(1000).capacity());
+    }
+}
@@ -0,0 +1,116 @@
+package spullara.nio.channels;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class ChannelMetricsTest {
+
+    @Test
+    public void testEcho() throws Exception {
+        ChannelMetrics serverMetrics = new ChannelMetrics();
+        ChannelMetrics clientTotal = new ChannelMetrics();
+        ChannelMetrics clientMetrics = new ChannelMetrics(clientTotal);
+
+        FutureServerSocketChannel fssc = FutureServerSocketChannel.open().bind(new InetSocketAddress(0));
+        fssc.setMetrics(serverMetrics);
+        FutureSocketChannel client = FutureSocketChannel.open();
+        client.setMetrics(clientMetrics);
+        FutureSocketChannel server = fssc.accept().thenCombine(
+                client.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())),
+                (fsc, v) -> fsc).get();
+        assertEquals(serverMetrics, server.getMetrics());
+        assertEquals(1, serverMetrics.getAccepted());
+        assertEquals(0, serverMetrics.getAcceptsPending());
+        assertEquals(1, serverMetrics.getAcceptQueueDepth());
+        LoopbackBenchmark.echo(server);
+
+        for (int i = 0; i < 10; i++) {
+            client.write(new byte[100]).get();
+            ByteBuffer in = ByteBuffer.allocate(100);
+            assertEquals(100L, (long) client.readFully(in).get());
+        }
+
+        ChannelMetrics.Snapshot snapshot = clientMetrics.snapshot();
+        assertEquals(1000, snapshot.getBytesWritten());
+        assertEquals(1000, snapshot.getBytesRead());
+        assertEquals(0, snapshot.getPendingWriteBytes());
+        assertEquals(0, snapshot.getReadsInFlight());
+        assertEquals(0, snapshot.getWritesInFlight());
+        assertTrue(snapshot.getReadLatency().getCount() >= 10);
+        assertEquals(10, snapshot.getWriteLatency().getCount());
+        assertTrue(snapshot.getCallbackTime().getCount() >= 20);
+        assertEquals(1000, clientTotal.getBytesRead());
+        assertEquals(1000, clientTotal.getBytesWritten());
+
+        // The server's echo may still be finishing its last write
+        client.close();
+        server.closeFuture().get();
+        assertEquals(1000, serverMetrics.getBytesRead());
+        server.close();
+        assertEquals(0, serverMetrics.getAcceptQueueDepth());
+        fssc.close();
+    }
+
+    @Test
+    public void testHandlerOperations() throws Exception {
+        ChannelMetrics metrics = new ChannelMetrics();
+        FutureServerSocketChannel fssc = FutureServerSocketChannel.open().bind(new InetSocketAddress(0));
+        FutureSocketChannel client = FutureSocketChannel.open();
+        client.setMetrics(metrics);
+        FutureSocketChannel server = fssc.accept().thenCombine(
+                client.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())),
+                (fsc, v) -> fsc).get();
+        LoopbackBenchmark.echo(server);
+
+        CompletableFuture<Integer> writer = new CompletableFuture<>();
+        client.write(ByteBuffer.allocate(100), writer, FutureSocketChannel.completer());
+        assertEquals(100, (int) writer.get());
+        ByteBuffer in = ByteBuffer.allocate(100);
+        while (in.hasRemaining()) {
+            CompletableFuture<Integer> reader = new CompletableFuture<>();
+            client.read(in, reader, FutureSocketChannel.completer());
+            reader.get();
+        }
+
+        ChannelMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(100, snapshot.getBytesWritten());
+        assertEquals(100, snapshot.getBytesRead());
+        assertEquals(0, snapshot.getPendingWriteBytes());
+        assertEquals(0, snapshot.getReadsInFlight());
+        assertEquals(0, snapshot.getWritesInFlight());
+        assertEquals(1, snapshot.getWriteLatency().getCount());
+        assertTrue(snapshot.getReadLatency().getCount() >= 1);
+        client.close();
+        server.close();
+        fssc.close();
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        ChannelMetrics metrics = new ChannelMetrics();
+        metrics.register("test");
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("spullara.nio.channels:type=ChannelMetrics,name=\"test\"");
+            assertEquals(0L, mbs.getAttribute(name, "BytesRead"));
+            metrics.readCompleted(metrics.readStarted(), 42);
+            assertEquals(42L, mbs.getAttribute(name, "BytesRead"));
+            assertEquals(0L, mbs.getAttribute(name, "ReadsInFlight"));
+            mbs.invoke(name, "reset", null, null);
+            assertEquals(0L, metrics.getBytesRead());
+        } finally {
+            metrics.unregister();
+        }
+        assertTrue(!ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName("spullara.nio.channels:type=ChannelMetrics,name=\"test\"")));
+    }
+}
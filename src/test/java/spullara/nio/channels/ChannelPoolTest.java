@@ -0,0 +1,118 @@
+package spullara.nio.channels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import spullara.util.concurrent.Subscriber;
+import spullara.util.concurrent.Subscription;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class ChannelPoolTest {
+
+    private FutureServerSocketChannel fssc;
+    private InetSocketAddress address;
+    private final AtomicInteger accepted = new AtomicInteger();
+
+    @Before
+    public void setup() throws Exception {
+        fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        address = new InetSocketAddress("localhost", fssc.getLocalAddress().getPort());
+        fssc.connections(100).subscribe(new Subscriber<FutureSocketChannel>() {
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            public void onNext(FutureSocketChannel item) {
+                accepted.incrementAndGet();
+            }
+
+            public void onError(Throwable th) {
+            }
+
+            public void onComplete() {
+            }
+        });
+    }
+
+    @After
+    public void teardown() {
+        fssc.close();
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        ChannelPool pool = new ChannelPool(0, 2, 2, 1, TimeUnit.MINUTES);
+        FutureSocketChannel first = pool.acquire(address).get();
+        pool.release(address, first);
+        assertSame(first, pool.acquire(address).get());
+        FutureSocketChannel second = pool.acquire(address).get();
+        assertNotSame(first, second);
+        assertEquals(2, pool.getOpenConnections(address));
+        pool.release(address, first);
+        pool.release(address, second);
+        assertEquals(2, pool.getIdleConnections(address));
+        pool.close();
+        assertFalse(first.isOpen());
+    }
+
+    @Test
+    public void testWaitersInOrder() throws Exception {
+        ChannelPool pool = new ChannelPool(0, 1, 1, 1, TimeUnit.MINUTES);
+        FutureSocketChannel channel = pool.acquire(address).get();
+        CompletableFuture<FutureSocketChannel> waiter1 = pool.acquire(address);
+        CompletableFuture<FutureSocketChannel> waiter2 = pool.acquire(address);
+        assertFalse(waiter1.isDone());
+        pool.release(address, channel);
+        assertSame(channel, waiter1.get(1, TimeUnit.SECONDS));
+        assertFalse(waiter2.isDone());
+        pool.discard(address, channel);
+        FutureSocketChannel replacement = waiter2.get(1, TimeUnit.SECONDS);
+        assertNotSame(channel, replacement);
+        assertTrue(replacement.isOpen());
+        assertEquals(1, pool.getOpenConnections(address));
+        pool.close();
+    }
+
+    @Test
+    public void testUnhealthyNotReused() throws Exception {
+        ChannelPool pool = new ChannelPool(0, 2, 2, 1, TimeUnit.MINUTES);
+        FutureSocketChannel channel = pool.acquire(address).get();
+        pool.release(address, channel);
+        channel.close();
+        assertNotSame(channel, pool.acquire(address).get());
+        assertEquals(1, pool.getOpenConnections(address));
+        pool.close();
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        ChannelPool pool = new ChannelPool(1, 4, 4, 50, TimeUnit.MILLISECONDS);
+        FutureSocketChannel[] channels = new FutureSocketChannel[3];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = pool.acquire(address).get();
+        }
+        for (FutureSocketChannel channel : channels) {
+            pool.release(address, channel);
+        }
+        assertEquals(3, pool.getIdleConnections(address));
+        Thread.sleep(300);
+        assertEquals(1, pool.getIdleConnections(address));
+        assertEquals(1, pool.getOpenConnections(address));
+        FutureSocketChannel kept = pool.acquire(address).get();
+        Thread.sleep(300);
+        assertEquals(1, pool.getIdleConnections(address));
+        assertEquals(2, pool.getOpenConnections(address));
+        pool.release(address, kept);
+        pool.close();
+    }
+}
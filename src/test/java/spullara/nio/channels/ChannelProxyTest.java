@@ -0,0 +1,70 @@
+package spullara.nio.channels;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ChannelProxyTest {
+
+    @Test
+    public void testProxyEcho() throws Exception {
+        // Echo server that closes once the client is done sending
+        FutureServerSocketChannel echo = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        echo.accept().thenAccept(LoopbackBenchmark::echo);
+        InetSocketAddress echoAddress = new InetSocketAddress("localhost", echo.getLocalAddress().getPort());
+
+        FutureServerSocketChannel edge = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<ChannelProxy> proxied = edge.accept().thenCompose(fsc -> ChannelProxy.connect(fsc, echoAddress));
+
+        FutureSocketChannel client = new FutureSocketChannel();
+        client.connect(new InetSocketAddress("localhost", edge.getLocalAddress().getPort())).get();
+        byte[] sent = new byte[1024 * 1024];
+        new Random(1).nextBytes(sent);
+        client.write(ByteBuffer.wrap(sent));
+        ByteBuffer received = ByteBuffer.allocate(sent.length);
+        assertEquals(sent.length, (long) client.readFully(received).get(5, TimeUnit.SECONDS));
+        assertTrue(Arrays.equals(sent, received.array()));
+
+        // The half close travels through the proxy, the echo server closes and that comes back
+        client.shutdownOutput();
+        assertEquals(-1, (int) client.read(ByteBuffer.allocate(1)).get(5, TimeUnit.SECONDS));
+        ChannelProxy proxy = proxied.get(5, TimeUnit.SECONDS);
+        proxy.doneFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(sent.length, proxy.getBytesUp());
+        assertEquals(sent.length, proxy.getBytesDown());
+
+        client.close();
+        edge.close();
+        echo.close();
+    }
+
+    @Test
+    public void testUpstreamRefused() throws Exception {
+        FutureServerSocketChannel unused = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        InetSocketAddress refused = new InetSocketAddress("localhost", unused.getLocalAddress().getPort());
+        unused.close();
+        FutureServerSocketChannel edge = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<FutureSocketChannel> accepted = edge.accept();
+        CompletableFuture<ChannelProxy> proxied = accepted.thenCompose(fsc -> ChannelProxy.connect(fsc, refused));
+        FutureSocketChannel client = new FutureSocketChannel();
+        client.connect(new InetSocketAddress("localhost", edge.getLocalAddress().getPort())).get();
+        try {
+            proxied.get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            // Expected
+        }
+        assertTrue(proxied.isCompletedExceptionally());
+        assertFalse(accepted.get().isOpen());
+        client.close();
+        edge.close();
+    }
+}
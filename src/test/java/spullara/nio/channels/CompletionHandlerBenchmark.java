@@ -0,0 +1,134 @@
+package spullara.nio.channels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the allocation cost of a one byte write / read pair between
+ * a handler allocated per operation, the shared handlers behind the
+ * future returning methods and a caller supplied handler reused for
+ * every operation. Run main() to get gc.alloc.rate.norm per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompletionHandlerBenchmark {
+
+    private FutureServerSocketChannel server;
+    private FutureSocketChannel client;
+    private FutureSocketChannel accepted;
+    private ByteBuffer out;
+    private ByteBuffer in;
+    private Reused reused;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<FutureSocketChannel> acceptor = server.accept();
+        client = FutureSocketChannel.open();
+        client.connect(new InetSocketAddress("localhost", server.getLocalAddress().getPort())).get();
+        accepted = acceptor.get();
+        out = ByteBuffer.allocateDirect(1);
+        in = ByteBuffer.allocateDirect(1);
+        reused = new Reused();
+    }
+
+    @TearDown
+    public void teardown() {
+        client.close();
+        accepted.close();
+    }
+
+    @Benchmark
+    public int perOperationHandler() throws Exception {
+        out.clear();
+        in.clear();
+        CompletableFuture<Integer> writer = new CompletableFuture<>();
+        client.write(out, writer, new CompletionHandler<Integer, CompletableFuture<Integer>>() {
+            public void completed(Integer length, CompletableFuture<Integer> writer) {
+                writer.complete(length);
+            }
+
+            public void failed(Throwable th, CompletableFuture<Integer> writer) {
+                writer.completeExceptionally(th);
+            }
+        });
+        writer.get();
+        CompletableFuture<Integer> reader = new CompletableFuture<>();
+        accepted.read(in, reader, new CompletionHandler<Integer, CompletableFuture<Integer>>() {
+            public void completed(Integer length, CompletableFuture<Integer> reader) {
+                reader.complete(length);
+            }
+
+            public void failed(Throwable th, CompletableFuture<Integer> reader) {
+                reader.completeExceptionally(th);
+            }
+        });
+        return reader.get();
+    }
+
+    @Benchmark
+    public int sharedHandler() throws Exception {
+        out.clear();
+        in.clear();
+        client.write(out).get();
+        return accepted.read(in).get();
+    }
+
+    @Benchmark
+    public int reusedHandler() {
+        out.clear();
+        in.clear();
+        client.write(out, null, reused);
+        reused.await();
+        accepted.read(in, null, reused);
+        return reused.await();
+    }
+
+    private static class Reused implements CompletionHandler<Integer, Void> {
+        private volatile int result = Integer.MIN_VALUE;
+
+        public void completed(Integer length, Void v) {
+            result = length;
+        }
+
+        public void failed(Throwable th, Void v) {
+            result = -1;
+        }
+
+        int await() {
+            int length;
+            while ((length = result) == Integer.MIN_VALUE) ;
+            result = Integer.MIN_VALUE;
+            return length;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(CompletionHandlerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,123 @@
+package spullara.nio.channels;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class FrameCodecsTest {
+
+    private static ByteBuffer buffer(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String string(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static ByteBuffer encoded(FrameCodec codec, String payload) {
+        ByteBuffer out = ByteBuffer.allocate(payload.length() + 8);
+        for (ByteBuffer b : codec.encode(buffer(payload))) {
+            out.put(b);
+        }
+        out.flip();
+        return out;
+    }
+
+    @Test
+    public void testFixedLength() throws IOException {
+        FrameCodec codec = FrameCodecs.fixedLength(100);
+        ByteBuffer in = ByteBuffer.allocate(100);
+        in.put(encoded(codec, "hello")).put(encoded(codec, "")).put(encoded(codec, "world"));
+        in.flip();
+        in.limit(in.limit() - 1);
+        assertEquals("hello", string(codec.decode(in)));
+        assertEquals("", string(codec.decode(in)));
+        assertNull(codec.decode(in));
+        in.limit(in.limit() + 1);
+        assertEquals("world", string(codec.decode(in)));
+        assertEquals(0, in.remaining());
+    }
+
+    @Test
+    public void testVarint() throws IOException {
+        FrameCodec codec = FrameCodecs.varint(100000);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        ByteBuffer encoded = encoded(codec, sb.toString());
+        assertEquals((byte) 0xAC, encoded.get(0));
+        assertEquals((byte) 0x02, encoded.get(1));
+        encoded.limit(1);
+        assertNull(codec.decode(encoded));
+        encoded.limit(301);
+        assertNull(codec.decode(encoded));
+        encoded.limit(302);
+        assertEquals(sb.toString(), string(codec.decode(encoded)));
+    }
+
+    @Test
+    public void testTooLong() {
+        try {
+            FrameCodecs.fixedLength(4).decode(ByteBuffer.allocate(4).putInt(0, 5));
+            fail("Should be too long");
+        } catch (IOException e) {
+        }
+        try {
+            FrameCodecs.varint(4).decode(ByteBuffer.wrap(new byte[]{5}));
+            fail("Should be too long");
+        } catch (IOException e) {
+        }
+        try {
+            FrameCodecs.newline(4).decode(buffer("123456"));
+            fail("Should be too long");
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testNewline() throws IOException {
+        FrameCodec codec = FrameCodecs.newline(100);
+        ByteBuffer in = buffer("first line\r\nsecond\n\nthe third line is longer than eight\nrest");
+        assertEquals("first line", string(codec.decode(in)));
+        assertEquals("second", string(codec.decode(in)));
+        assertEquals("", string(codec.decode(in)));
+        assertEquals("the third line is longer than eight", string(codec.decode(in)));
+        assertNull(codec.decode(in));
+        assertEquals("rest", string(in));
+    }
+
+    @Test
+    public void testEveryPosition() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < i; j++) sb.append('x');
+            FrameCodec codec = FrameCodecs.newline(100);
+            ByteBuffer in = buffer(sb + "\n" + sb + "y\n");
+            assertEquals(sb.toString(), string(codec.decode(in)));
+            assertEquals(sb + "y", string(codec.decode(in)));
+        }
+    }
+
+    @Test
+    public void testIncrementalScan() throws IOException {
+        FrameCodec codec = FrameCodecs.crlf(100);
+        ByteBuffer in = buffer("a\nmultiline\nframe\r\nnext\r\n");
+        for (int limit = 0; limit < 19; limit++) {
+            in.limit(limit);
+            assertNull(codec.decode(in));
+        }
+        in.limit(in.capacity());
+        assertEquals("a\nmultiline\nframe", string(codec.decode(in)));
+        assertEquals("next", string(codec.decode(in)));
+        assertNull(codec.decode(in));
+    }
+}
@@ -0,0 +1,114 @@
+package spullara.nio.channels;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FramedChannelTest {
+
+    private static String string(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testFrames() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<FutureSocketChannel> acceptor = fssc.accept();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        FutureSocketChannel accepted = acceptor.get();
+        accepted.setReadBufferSize(16);
+        FramedChannel server = new FramedChannel(accepted, FrameCodecs.varint(1 << 20));
+        FramedChannel client = new FramedChannel(fsc, FrameCodecs.varint(1 << 20));
+
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            large.append(i);
+        }
+        client.write(ByteBuffer.wrap("one".getBytes()));
+        client.write(ByteBuffer.wrap(large.toString().getBytes()));
+        client.write(ByteBuffer.wrap("three".getBytes()));
+
+        assertEquals("one", string(server.read().get()));
+        assertEquals(large.toString(), string(server.read().get()));
+        assertEquals("three", string(server.read().get()));
+
+        fsc.write(ByteBuffer.wrap(new byte[]{10, 'x'})).get();
+        fsc.close();
+        try {
+            server.read().get();
+            fail("Should have failed inside a frame");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof EOFException);
+        }
+        server.close();
+    }
+
+    @Test
+    public void testEndOfStream() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<FutureSocketChannel> acceptor = fssc.accept();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        FramedChannel server = new FramedChannel(acceptor.get(), FrameCodecs.newline(1024));
+        fsc.write("line one\r\nline two\n".getBytes()).get();
+        fsc.close();
+        assertEquals("line one", string(server.read().get()));
+        assertEquals("line two", string(server.read().get()));
+        assertNull(server.read().get());
+        server.close();
+    }
+
+    @Test
+    public void testCloseWhileReading() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<FutureSocketChannel> acceptor = fssc.accept();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        AtomicInteger released = new AtomicInteger();
+        FutureSocketChannel channel = acceptor.get();
+        channel.setBufferPool(new BufferPool(512, 4096, 4, 4) {
+            @Override
+            public void release(ByteBuffer buffer) {
+                released.incrementAndGet();
+                super.release(buffer);
+            }
+        });
+        FramedChannel server = new FramedChannel(channel, FrameCodecs.newline(1024));
+        CompletableFuture<ByteBuffer> pending = server.read();
+        server.close();
+        try {
+            pending.get(5, TimeUnit.SECONDS);
+            fail("Read should have failed");
+        } catch (ExecutionException e) {
+            // Closed under it
+        }
+        // Only given back once the pending read was done with it
+        assertEquals(1, released.get());
+        try {
+            server.read().get();
+            fail("Read should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClosedChannelException);
+        }
+        server.close();
+        assertEquals(1, released.get());
+        fsc.close();
+        fssc.close();
+    }
+}
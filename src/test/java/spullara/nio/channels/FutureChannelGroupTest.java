@@ -0,0 +1,66 @@
+package spullara.nio.channels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class FutureChannelGroupTest {
+
+    private FutureChannelGroup group;
+
+    @Before
+    public void setup() throws Exception {
+        group = new FutureChannelGroup(2);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        group.shutdownNow();
+        assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCompletionsRunOnChannelLoop() throws Exception {
+        FutureServerSocketChannel fssc = group.openServer().bind(new InetSocketAddress(0));
+        FutureSocketChannel client = group.open();
+        CompletableFuture<Thread> serverThread = new CompletableFuture<>();
+        CompletableFuture<Thread> serverExecutorThread = new CompletableFuture<>();
+        fssc.accept().thenAccept(fsc -> fsc.read().thenAccept(bb -> {
+            serverThread.complete(Thread.currentThread());
+            fsc.release(bb);
+            fsc.getExecutor().execute(() -> serverExecutorThread.complete(Thread.currentThread()));
+            fsc.write("pong".getBytes());
+        }));
+        Thread clientThread = client.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort()))
+                .thenCompose(v -> client.write("ping".getBytes()))
+                .thenCompose(v -> client.read(ByteBuffer.allocate(16)))
+                .thenApply(v -> Thread.currentThread())
+                .get(5, TimeUnit.SECONDS);
+        Thread server = serverThread.get(5, TimeUnit.SECONDS);
+        assertSame(server, serverExecutorThread.get(5, TimeUnit.SECONDS));
+        assertTrue(server.getName().startsWith("FutureChannelGroup-"));
+        assertTrue(clientThread.getName().startsWith("FutureChannelGroup-"));
+        // Assigned round robin across the two loops
+        assertNotSame(server, clientThread);
+        CompletableFuture<Thread> clientExecutorThread = new CompletableFuture<>();
+        client.getExecutor().execute(() -> clientExecutorThread.complete(Thread.currentThread()));
+        assertSame(clientThread, clientExecutorThread.get(5, TimeUnit.SECONDS));
+        client.close();
+        fssc.close();
+    }
+
+    @Test
+    public void testLoopCount() throws Exception {
+        assertEquals(2, group.getLoopCount());
+    }
+}
@@ -0,0 +1,87 @@
+package spullara.nio.channels;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class FutureDatagramChannelTest {
+
+    @Test
+    public void testBatchReceive() throws Exception {
+        FutureDatagramChannel server = new FutureDatagramChannel().bind(new InetSocketAddress("localhost", 0));
+        server.setReceiveBufferSize(1024 * 1024);
+        FutureDatagramChannel client = new FutureDatagramChannel().bind(new InetSocketAddress("localhost", 0));
+        int count = 1000;
+        CountDownLatch latch = new CountDownLatch(count);
+        AtomicInteger sum = new AtomicInteger();
+        AtomicInteger batches = new AtomicInteger();
+        AtomicReference<SocketAddress> from = new AtomicReference<>();
+        CompletableFuture<Void> receiving = server.receive(new DatagramReceiver() {
+            public void received(ByteBuffer datagram, SocketAddress sender) {
+                sum.addAndGet(datagram.getInt());
+                server.release(datagram);
+                from.set(sender);
+                latch.countDown();
+            }
+
+            public void batchComplete() {
+                batches.incrementAndGet();
+            }
+        }, 64);
+        InetSocketAddress target = new InetSocketAddress("localhost", server.getLocalAddress().getPort());
+        CompletableFuture<Integer> last = null;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer datagram = ByteBuffer.allocate(4);
+            datagram.putInt(0, i);
+            last = client.send(datagram, target);
+            // Loopback drops if we get too far ahead of the receiver
+            if (i % 100 == 99) Thread.sleep(1);
+        }
+        assertEquals(4, (int) last.get(5, TimeUnit.SECONDS));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(count * (count - 1) / 2, sum.get());
+        assertTrue(batches.get() > 0 && batches.get() <= count);
+        assertEquals(client.getLocalAddress().getPort(), ((InetSocketAddress) from.get()).getPort());
+        server.close();
+        receiving.get(5, TimeUnit.SECONDS);
+        client.close();
+    }
+
+    @Test
+    public void testCancelStopsReceiving() throws Exception {
+        FutureDatagramChannel server = new FutureDatagramChannel().bind(new InetSocketAddress("localhost", 0));
+        FutureDatagramChannel client = new FutureDatagramChannel();
+        AtomicInteger received = new AtomicInteger();
+        CompletableFuture<Void> receiving = server.receive((datagram, sender) -> {
+            server.release(datagram);
+            received.incrementAndGet();
+        }, 16);
+        InetSocketAddress target = new InetSocketAddress("localhost", server.getLocalAddress().getPort());
+        client.send(ByteBuffer.wrap(new byte[]{1}), target).get();
+        long start = System.currentTimeMillis();
+        while (received.get() == 0 && System.currentTimeMillis() - start < 5000) Thread.sleep(1);
+        assertEquals(1, received.get());
+        receiving.cancel(false);
+        // Receiving again is allowed once the last one is done
+        CountDownLatch latch = new CountDownLatch(1);
+        server.receive((datagram, sender) -> {
+            server.release(datagram);
+            latch.countDown();
+        }, 16);
+        client.send(ByteBuffer.wrap(new byte[]{2}), target).get();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, received.get());
+        server.close();
+        client.close();
+    }
+}
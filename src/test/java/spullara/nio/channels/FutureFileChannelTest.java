@@ -0,0 +1,95 @@
+package spullara.nio.channels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class FutureFileChannelTest {
+
+    private Path path;
+    private byte[] contents;
+
+    @Before
+    public void setup() throws Exception {
+        path = Files.createTempFile("ffc", ".bin");
+        contents = new byte[100000];
+        new Random(1).nextBytes(contents);
+        Files.write(path, contents);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        Files.delete(path);
+    }
+
+    @Test
+    public void testReadFullyAndBatch() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        FutureFileChannel ffc = FutureFileChannel.open(path, executor, StandardOpenOption.READ);
+        try {
+            ByteBuffer all = ByteBuffer.allocate(200000);
+            assertEquals(100000, (int) ffc.readFully(all, 0).get());
+            assertTrue(Arrays.equals(contents, Arrays.copyOf(all.array(), 100000)));
+
+            ByteBuffer[] buffers = {ByteBuffer.allocate(10), ByteBuffer.allocate(10), ByteBuffer.allocate(10)};
+            int[] lengths = ffc.read(buffers, new long[]{99995, 0, 200000}).get();
+            assertEquals(5, lengths[0]);
+            assertEquals(10, lengths[1]);
+            assertEquals(-1, lengths[2]);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(contents, 0, 10), buffers[1].array()));
+        } finally {
+            ffc.close();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWriteFully() throws Exception {
+        FutureFileChannel ffc = FutureFileChannel.open(path, StandardOpenOption.WRITE);
+        try {
+            assertEquals(5, (int) ffc.writeFully(ByteBuffer.wrap("hello".getBytes()), 100000).get());
+            assertEquals(100005, ffc.size());
+        } finally {
+            ffc.close();
+        }
+        byte[] written = Files.readAllBytes(path);
+        assertEquals("hello", new String(written, 100000, 5));
+    }
+
+    @Test
+    public void testMapped() throws Exception {
+        FutureFileChannel ffc = FutureFileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer view = ffc.mapped(1000, 50);
+            assertEquals(50, view.remaining());
+            byte[] bytes = new byte[50];
+            view.get(bytes);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(contents, 1000, 1050), bytes));
+            assertTrue(view.isReadOnly());
+        } finally {
+            ffc.close();
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testMappedOutOfRange() throws Exception {
+        FutureFileChannel ffc = FutureFileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ffc.mapped(99990, 20);
+        } finally {
+            ffc.close();
+        }
+    }
+}
@@ -3,10 +3,25 @@ package spullara.nio.channels;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.EOFException;
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
@@ -44,4 +59,186 @@ public class FutureSocketChannelTest {
         latch.await();
         Assert.assertEquals("hello", result.get());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPooledEchoServer() throws Exception {
+        final AtomicReference<String> result = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        fssc.accept().thenAccept(fsc -> fsc.read().thenAccept(bb -> {
+            byte[] bytes = new byte[bb.remaining()];
+            bb.get(bytes);
+            fsc.release(bb);
+            fsc.write(bytes).thenAccept(sent -> fsc.close());
+        }));
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort()))
+                .thenCompose(v -> fsc.write("hello".getBytes()))
+                .thenCompose(sent -> fsc.read())
+                .thenAccept(bb -> {
+                    byte[] bytes = new byte[bb.remaining()];
+                    bb.get(bytes);
+                    fsc.release(bb);
+                    result.set(new String(bytes));
+                    latch.countDown();
+                });
+        latch.await();
+        Assert.assertEquals("hello", result.get());
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        int writers = 8;
+        int writes = 100;
+        int size = 1000;
+        final FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<FutureSocketChannel> acceptor = fssc.accept();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        FutureSocketChannel server = acceptor.get();
+
+        ExecutorService es = Executors.newFixedThreadPool(writers);
+        List<CompletableFuture<Integer>> written = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            byte[] bytes = new byte[size];
+            Arrays.fill(bytes, (byte) i);
+            es.submit(() -> {
+                for (int j = 0; j < writes; j++) {
+                    CompletableFuture<Integer> writer = j % 2 == 0 ? fsc.write(ByteBuffer.wrap(bytes)) : fsc.write(bytes);
+                    synchronized (written) {
+                        written.add(writer);
+                    }
+                }
+            });
+        }
+        es.shutdown();
+        es.awaitTermination(10, TimeUnit.SECONDS);
+
+        ByteBuffer received = ByteBuffer.allocate(writers * writes * size);
+        while (received.hasRemaining()) {
+            server.read(received).get();
+        }
+        for (CompletableFuture<Integer> writer : written) {
+            Assert.assertEquals(size, (int) writer.get());
+        }
+        byte[] bytes = received.array();
+        for (int i = 0; i < bytes.length; i += size) {
+            for (int j = 1; j < size; j++) {
+                Assert.assertEquals(bytes[i], bytes[i + j]);
+            }
+        }
+        fsc.close();
+        server.close();
+    }
+
+    @Test
+    public void testVectoredReadWrite() throws Exception {
+        final FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<FutureSocketChannel> acceptor = fssc.accept();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        FutureSocketChannel server = acceptor.get();
+
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(0, 100000);
+        ByteBuffer payload = ByteBuffer.allocateDirect(100000);
+        while (payload.hasRemaining()) {
+            payload.put((byte) payload.position());
+        }
+        payload.flip();
+        CompletableFuture<Long> written = fsc.write(new ByteBuffer[]{header, ByteBuffer.allocate(0), payload});
+
+        ByteBuffer length = ByteBuffer.allocate(4);
+        ByteBuffer body = ByteBuffer.allocate(100000);
+        Assert.assertEquals(100004L, (long) server.readFully(length, body).get());
+        Assert.assertEquals(100004L, (long) written.get());
+        Assert.assertEquals(100000, length.getInt(0));
+        for (int i = 0; i < body.capacity(); i++) {
+            Assert.assertEquals((byte) i, body.get(i));
+        }
+
+        fsc.close();
+        try {
+            server.readFully(ByteBuffer.allocate(1)).get();
+            Assert.fail("Should have reached the end of the stream");
+        } catch (ExecutionException ee) {
+            Assert.assertTrue(ee.getCause() instanceof EOFException);
+        }
+        server.close();
+    }
+
+    @Test
+    public void testTransferFrom() throws Exception {
+        File file = File.createTempFile("transfer", ".bin");
+        file.deleteOnExit();
+        byte[] bytes = new byte[9 * 1024 * 1024];
+        new Random(1).nextBytes(bytes);
+        Files.write(file.toPath(), bytes);
+
+        final FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<FutureSocketChannel> acceptor = fssc.accept();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        FutureSocketChannel server = acceptor.get();
+
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            CompletableFuture<Long> transfer = fsc.transferFrom(fc, 10, Long.MAX_VALUE);
+            ByteBuffer received = ByteBuffer.allocate(bytes.length - 10);
+            server.readFully(received).get();
+            Assert.assertEquals(bytes.length - 10, (long) transfer.get());
+            Assert.assertArrayEquals(Arrays.copyOfRange(bytes, 10, bytes.length), received.array());
+        }
+        fsc.close();
+        server.close();
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        fssc.accept();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.setReadTimeout(100, TimeUnit.MILLISECONDS);
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        try {
+            fsc.read(ByteBuffer.allocate(16)).get(5, TimeUnit.SECONDS);
+            Assert.fail("Read should have timed out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof InterruptedByTimeoutException);
+        }
+        fsc.closeFuture().get(5, TimeUnit.SECONDS);
+        Assert.assertFalse(fsc.isOpen());
+        fssc.close();
+    }
+
+    @Test
+    public void testHandlerReadTimeout() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        fssc.accept();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.setReadTimeout(100, TimeUnit.MILLISECONDS);
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        CompletableFuture<Integer> reader = new CompletableFuture<>();
+        fsc.read(ByteBuffer.allocate(16), reader, FutureSocketChannel.completer());
+        try {
+            reader.get(5, TimeUnit.SECONDS);
+            Assert.fail("Read should have timed out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof InterruptedByTimeoutException);
+        }
+        Assert.assertFalse(fsc.isOpen());
+        fssc.close();
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        fssc.setIdleTimeout(100, TimeUnit.MILLISECONDS);
+        CompletableFuture<FutureSocketChannel> accepted = fssc.accept();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        FutureSocketChannel server = accepted.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(-1, (int) fsc.read(ByteBuffer.allocate(16)).get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(server.isOpen());
+        fsc.close();
+        fssc.close();
+    }
+}
@@ -0,0 +1,143 @@
+package spullara.nio.channels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FutureSslSocketChannelTest {
+
+    private SSLContext context;
+    private FutureServerSocketChannel fssc;
+    private FutureSslSocketChannel client;
+    private final CompletableFuture<Void> serverEof = new CompletableFuture<>();
+
+    @Before
+    public void setup() throws Exception {
+        char[] password = "password".toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream is = getClass().getResourceAsStream("/test.p12")) {
+            keyStore.load(is, password);
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, password);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+
+        fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        fssc.accept().thenAccept(fsc -> {
+            SSLEngine engine = context.createSSLEngine();
+            engine.setUseClientMode(false);
+            echo(new FutureSslSocketChannel(fsc, engine));
+        });
+        int port = fssc.getLocalAddress().getPort();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", port)).get();
+        SSLEngine engine = context.createSSLEngine("localhost", port);
+        engine.setUseClientMode(true);
+        client = new FutureSslSocketChannel(fsc, engine);
+    }
+
+    @After
+    public void teardown() {
+        client.close();
+        fssc.close();
+    }
+
+    private void echo(FutureSslSocketChannel ssl) {
+        ssl.read().whenComplete((bb, th) -> {
+            if (th != null || bb == null) {
+                if (th == null) {
+                    serverEof.complete(null);
+                } else {
+                    serverEof.completeExceptionally(th);
+                }
+                ssl.close();
+                return;
+            }
+            ssl.write(bb).whenComplete((n, wth) -> ssl.release(bb));
+            echo(ssl);
+        });
+    }
+
+    @Test
+    public void testEcho() throws Exception {
+        client.handshake().get(5, TimeUnit.SECONDS);
+        assertTrue(client.getSession().getProtocol().startsWith("TLS"));
+        client.write("hello".getBytes());
+        ByteBuffer bb = client.read().get(5, TimeUnit.SECONDS);
+        byte[] bytes = new byte[bb.remaining()];
+        bb.get(bytes);
+        client.release(bb);
+        assertEquals("hello", new String(bytes));
+    }
+
+    @Test
+    public void testLargeWritesBeforeHandshake() throws Exception {
+        byte[] sent = new byte[300000];
+        new Random(1).nextBytes(sent);
+        // Split across writes issued before the handshake to check their order
+        CompletableFuture<Integer> first = client.write(ByteBuffer.wrap(sent, 0, 100000));
+        CompletableFuture<Integer> second = client.write(ByteBuffer.wrap(sent, 100000, 200000));
+        byte[] received = new byte[sent.length];
+        int total = 0;
+        while (total < sent.length) {
+            ByteBuffer bb = client.read().get(5, TimeUnit.SECONDS);
+            int length = bb.remaining();
+            bb.get(received, total, length);
+            client.release(bb);
+            total += length;
+        }
+        assertEquals(100000, (int) first.get());
+        assertEquals(200000, (int) second.get());
+        assertTrue(Arrays.equals(sent, received));
+    }
+
+    @Test
+    public void testFailedWriteBeforeHandshake() throws Exception {
+        CompletableFuture<Integer> failed = client.write((ByteBuffer) null);
+        CompletableFuture<Integer> written = client.write("hello".getBytes());
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("Write should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+        // Only the failed write is affected
+        assertEquals(5, (int) written.get(5, TimeUnit.SECONDS));
+        ByteBuffer bb = client.read().get(5, TimeUnit.SECONDS);
+        byte[] bytes = new byte[bb.remaining()];
+        bb.get(bytes);
+        client.release(bb);
+        assertEquals("hello", new String(bytes));
+    }
+
+    @Test
+    public void testCloseNotify() throws Exception {
+        client.write("bye".getBytes()).get(5, TimeUnit.SECONDS);
+        client.release(client.read().get(5, TimeUnit.SECONDS));
+        client.close();
+        // The server sees a clean end of stream rather than a truncation
+        serverEof.get(5, TimeUnit.SECONDS);
+        client.closeFuture().get(5, TimeUnit.SECONDS);
+    }
+}
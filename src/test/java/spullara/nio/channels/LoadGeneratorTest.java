@@ -0,0 +1,44 @@
+package spullara.nio.channels;
+
+import org.junit.Test;
+import spullara.util.concurrent.Subscriber;
+import spullara.util.concurrent.Subscription;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void testOpenLoop() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        fssc.connections(10).subscribe(new Subscriber<FutureSocketChannel>() {
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            public void onNext(FutureSocketChannel fsc) {
+                LoopbackBenchmark.echo(fsc);
+            }
+
+            public void onError(Throwable th) {
+            }
+
+            public void onComplete() {
+            }
+        });
+        LoadGenerator generator = new LoadGenerator(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort()), 2000, 2, 32);
+        LoadGenerator.Result result = generator.run(500, TimeUnit.MILLISECONDS);
+        fssc.close();
+        assertEquals(1000, result.getSent());
+        assertEquals(1000, result.getCompleted());
+        assertEquals(0, result.getErrors());
+        assertEquals(1000, result.getLatency().getCount());
+        // Measured from the intended start, latency can't be less than service time
+        assertTrue(result.getLatency().getValueAtPercentile(100) >= result.getServiceTime().getValueAtPercentile(100));
+        assertTrue(result.toString().contains("99.9"));
+    }
+}
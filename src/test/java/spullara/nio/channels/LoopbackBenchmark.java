@@ -0,0 +1,169 @@
+package spullara.nio.channels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loopback benchmarks for the channels against an echo server: round trip
+ * latency percentiles, pipelined throughput and the rate connections can
+ * be opened and accepted. Each runs across message sizes and channel
+ * groups, where 0 loops means the default group and anything else is a
+ * FutureChannelGroup with that many loops. Run main() to include
+ * gc.alloc.rate.norm per operation.
+ */
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackBenchmark {
+
+    private static final int PIPELINE = 16;
+
+    @State(Scope.Thread)
+    public static class Connection {
+        @Param({"64", "1024", "16384"})
+        public int size;
+
+        @Param({"0", "1", "2"})
+        public int loops;
+
+        private FutureChannelGroup group;
+        private FutureServerSocketChannel server;
+        private FutureSocketChannel client;
+        private ByteBuffer out;
+        private ByteBuffer pipelined;
+        private ByteBuffer in;
+
+        @Setup
+        public void setup() throws Exception {
+            group = loops == 0 ? null : new FutureChannelGroup(loops);
+            server = bind(group);
+            CompletableFuture<FutureSocketChannel> acceptor = server.accept();
+            client = group == null ? FutureSocketChannel.open() : group.open();
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            client.connect(new InetSocketAddress("localhost", server.getLocalAddress().getPort())).get();
+            echo(acceptor.get().setOption(StandardSocketOptions.TCP_NODELAY, true));
+            out = ByteBuffer.allocateDirect(size);
+            pipelined = ByteBuffer.allocateDirect(size * PIPELINE);
+            in = ByteBuffer.allocateDirect(size * PIPELINE);
+        }
+
+        @TearDown
+        public void teardown() throws Exception {
+            client.close();
+            server.close();
+            if (group != null) {
+                group.shutdownNow();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Server {
+        @Param({"0", "1", "2"})
+        public int loops;
+
+        private FutureChannelGroup group;
+        private FutureServerSocketChannel server;
+        private InetSocketAddress address;
+
+        @Setup
+        public void setup() throws Exception {
+            group = loops == 0 ? null : new FutureChannelGroup(loops);
+            server = bind(group);
+            address = new InetSocketAddress("localhost", server.getLocalAddress().getPort());
+        }
+
+        @TearDown
+        public void teardown() throws Exception {
+            server.close();
+            if (group != null) {
+                group.shutdownNow();
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long echoLatency(Connection c) throws Exception {
+        c.out.clear();
+        c.in.clear().limit(c.size);
+        c.client.write(c.out);
+        return c.client.readFully(c.in).get();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(PIPELINE)
+    public long pipelinedThroughput(Connection c) throws Exception {
+        c.in.clear();
+        for (int i = 0; i < PIPELINE; i++) {
+            ByteBuffer message = c.pipelined.duplicate();
+            message.position(i * c.size).limit((i + 1) * c.size);
+            c.client.write(message);
+        }
+        return c.client.readFully(c.in).get();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public FutureSocketChannel acceptRate(Server s) throws Exception {
+        CompletableFuture<FutureSocketChannel> acceptor = s.server.accept();
+        FutureSocketChannel client = s.group == null ? FutureSocketChannel.open() : s.group.open();
+        client.connect(s.address).get();
+        FutureSocketChannel accepted = acceptor.get();
+        accepted.close();
+        client.close();
+        return accepted;
+    }
+
+    private static FutureServerSocketChannel bind(FutureChannelGroup group) throws IOException {
+        FutureServerSocketChannel server = group == null ? FutureServerSocketChannel.open() : group.openServer();
+        return server.bind(new InetSocketAddress(0));
+    }
+
+    /**
+     * Writes back whatever it reads, releasing each pooled buffer once it
+     * has been written.
+     */
+    static void echo(FutureSocketChannel fsc) {
+        fsc.read().whenComplete((bb, th) -> {
+            if (th != null || bb == null) {
+                fsc.close();
+                return;
+            }
+            fsc.write(bb).whenComplete((written, wth) -> fsc.release(bb));
+            echo(fsc);
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(LoopbackBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,130 @@
+package spullara.nio.channels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class MuxChannelTest {
+
+    private final ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor();
+    private final CompletableFuture<CompletableFuture<ByteBuffer>> hung = new CompletableFuture<>();
+    private FutureServerSocketChannel fssc;
+    private MuxChannel client;
+
+    @Before
+    public void setup() throws Exception {
+        // Echoes after a delay that reverses the order of responses, hangs on
+        // "hang", fails on "fail" and misbehaves on "null", "empty" and "big"
+        Function<ByteBuffer, CompletableFuture<ByteBuffer>> service = request -> {
+            String message = StandardCharsets.UTF_8.decode(request.duplicate()).toString();
+            CompletableFuture<ByteBuffer> response = new CompletableFuture<>();
+            if (message.equals("hang")) {
+                hung.complete(response);
+            } else if (message.equals("fail")) {
+                throw new IllegalArgumentException("failed");
+            } else if (message.equals("null")) {
+                return null;
+            } else if (message.equals("empty")) {
+                response.complete(null);
+            } else if (message.equals("big")) {
+                response.complete(ByteBuffer.allocate(16 * 1024 * 1024 + 1));
+            } else {
+                int delay = 100 - Integer.parseInt(message);
+                ses.schedule(() -> response.complete(request), delay, TimeUnit.MILLISECONDS);
+            }
+            return response;
+        };
+        fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        fssc.accept().thenAccept(fsc -> new MuxChannel(fsc, service));
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        client = new MuxChannel(fsc);
+    }
+
+    @After
+    public void teardown() {
+        client.close();
+        fssc.close();
+        ses.shutdown();
+    }
+
+    @Test
+    public void testOutOfOrderResponses() throws Exception {
+        List<CompletableFuture<ByteBuffer>> responses = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            responses.add(client.request(StandardCharsets.UTF_8.encode(String.valueOf(i))));
+        }
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer response = responses.get(i).get(5, TimeUnit.SECONDS);
+            assertEquals(String.valueOf(i), StandardCharsets.UTF_8.decode(response).toString());
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        CompletableFuture<ByteBuffer> response = client.request(StandardCharsets.UTF_8.encode("hang"));
+        CompletableFuture<ByteBuffer> served = hung.get(5, TimeUnit.SECONDS);
+        assertTrue(response.cancel(true));
+        CompletableFuture<Void> cancelled = new CompletableFuture<>();
+        served.whenComplete((r, th) -> cancelled.complete(null));
+        cancelled.get(5, TimeUnit.SECONDS);
+        assertTrue(served.isCancelled());
+        // The connection is still usable
+        assertEquals("7", StandardCharsets.UTF_8.decode(client.request(StandardCharsets.UTF_8.encode("7")).get(5, TimeUnit.SECONDS)).toString());
+    }
+
+    @Test
+    public void testError() throws Exception {
+        try {
+            client.request(StandardCharsets.UTF_8.encode("fail")).get(5, TimeUnit.SECONDS);
+            fail("Request should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertTrue(e.getCause().getMessage().contains("failed"));
+        }
+    }
+
+    @Test
+    public void testBadResponses() throws Exception {
+        for (String message : new String[]{"null", "empty", "big"}) {
+            try {
+                client.request(StandardCharsets.UTF_8.encode(message)).get(5, TimeUnit.SECONDS);
+                fail("Request should have failed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        // The connection is still usable
+        assertEquals("7", StandardCharsets.UTF_8.decode(client.request(StandardCharsets.UTF_8.encode("7")).get(5, TimeUnit.SECONDS)).toString());
+    }
+
+    @Test
+    public void testCloseFailsOutstanding() throws Exception {
+        CompletableFuture<ByteBuffer> response = client.request(StandardCharsets.UTF_8.encode("hang"));
+        hung.get(5, TimeUnit.SECONDS);
+        client.close();
+        try {
+            response.get(5, TimeUnit.SECONDS);
+            fail("Request should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
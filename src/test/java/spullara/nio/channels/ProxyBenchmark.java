@@ -0,0 +1,108 @@
+package spullara.nio.channels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end through a ChannelProxy in front of an echo server, to compare
+ * with the direct numbers from LoopbackBenchmark. Each message crosses
+ * the proxy twice. Run main() to include gc.alloc.rate.norm per operation.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyBenchmark {
+
+    private static final int PIPELINE = 16;
+
+    @Param({"64", "1024", "16384"})
+    public int size;
+
+    private FutureServerSocketChannel echo;
+    private FutureServerSocketChannel edge;
+    private FutureSocketChannel client;
+    private ByteBuffer out;
+    private ByteBuffer pipelined;
+    private ByteBuffer in;
+
+    @Setup
+    public void setup() throws Exception {
+        echo = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        echo.accept().thenAccept(fsc -> {
+            try {
+                LoopbackBenchmark.echo(fsc.setOption(StandardSocketOptions.TCP_NODELAY, true));
+            } catch (IOException e) {
+                fsc.close();
+            }
+        });
+        InetSocketAddress echoAddress = new InetSocketAddress("localhost", echo.getLocalAddress().getPort());
+        edge = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<ChannelProxy> proxied = edge.accept().thenCompose(fsc -> ChannelProxy.connect(fsc, echoAddress));
+        client = FutureSocketChannel.open().setOption(StandardSocketOptions.TCP_NODELAY, true);
+        client.connect(new InetSocketAddress("localhost", edge.getLocalAddress().getPort())).get();
+        proxied.get();
+        out = ByteBuffer.allocateDirect(size);
+        pipelined = ByteBuffer.allocateDirect(size * PIPELINE);
+        in = ByteBuffer.allocateDirect(size * PIPELINE);
+    }
+
+    @TearDown
+    public void teardown() {
+        client.close();
+        edge.close();
+        echo.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long echoLatency() throws Exception {
+        out.clear();
+        in.clear().limit(size);
+        client.write(out);
+        return client.readFully(in).get();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(PIPELINE)
+    public long pipelinedThroughput() throws Exception {
+        in.clear();
+        for (int i = 0; i < PIPELINE; i++) {
+            ByteBuffer message = pipelined.duplicate();
+            message.position(i * size).limit((i + 1) * size);
+            client.write(message);
+        }
+        return client.readFully(in).get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ProxyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
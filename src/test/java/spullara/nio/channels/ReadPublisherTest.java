@@ -0,0 +1,164 @@
+package spullara.nio.channels;
+
+import org.junit.Test;
+import spullara.util.concurrent.Subscriber;
+import spullara.util.concurrent.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class ReadPublisherTest {
+
+    @Test
+    public void testReads() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<FutureSocketChannel> acceptor = fssc.accept();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        FutureSocketChannel server = acceptor.get();
+        server.setReadBufferSize(512);
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        AtomicInteger chunks = new AtomicInteger();
+        CountDownLatch completed = new CountDownLatch(1);
+        CountDownLatch first = new CountDownLatch(1);
+        Subscription[] subscription = new Subscription[1];
+        server.reads().subscribe(new Subscriber<ByteBuffer>() {
+            public void onSubscribe(Subscription s) {
+                subscription[0] = s;
+            }
+
+            public void onNext(ByteBuffer item) {
+                assertTrue(item.remaining() <= 512);
+                while (item.hasRemaining()) {
+                    received.write(item.get());
+                }
+                chunks.incrementAndGet();
+                first.countDown();
+            }
+
+            public void onError(Throwable th) {
+                th.printStackTrace();
+            }
+
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+
+        byte[] bytes = new byte[10000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        fsc.write(bytes).get();
+        fsc.close();
+
+        subscription[0].request(1);
+        assertTrue(first.await(1, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, chunks.get());
+        assertFalse(completed.await(0, TimeUnit.SECONDS));
+
+        subscription[0].request(Long.MAX_VALUE);
+        assertTrue(completed.await(1, TimeUnit.SECONDS));
+        assertTrue(chunks.get() >= 10000 / 512);
+        assertEquals(bytes.length, received.size());
+        byte[] result = received.toByteArray();
+        for (int i = 0; i < bytes.length; i++) {
+            assertEquals(bytes[i], result[i]);
+        }
+        server.close();
+    }
+
+    @Test
+    public void testSignalsSerialized() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<FutureSocketChannel> acceptor = fssc.accept();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        FutureSocketChannel server = acceptor.get();
+
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch failed = new CountDownLatch(1);
+        Subscription[] subscription = new Subscription[1];
+        server.reads().subscribe(new Subscriber<ByteBuffer>() {
+            public void onSubscribe(Subscription s) {
+                subscription[0] = s;
+            }
+
+            public void onNext(ByteBuffer item) {
+                events.add("next");
+                if (events.size() == 1) {
+                    // Invalid demand, the error waits for this to return
+                    subscription[0].request(0);
+                    events.add("returning");
+                } else {
+                    throw new IllegalStateException("Should not be called again");
+                }
+            }
+
+            public void onError(Throwable th) {
+                events.add("error");
+                failed.countDown();
+            }
+
+            public void onComplete() {
+                events.add("complete");
+            }
+        });
+        fsc.write(new byte[10]).get();
+        subscription[0].request(1);
+        assertTrue(failed.await(1, TimeUnit.SECONDS));
+        assertEquals("[next, returning, error]", events.toString());
+        server.close();
+        fsc.close();
+        fssc.close();
+    }
+
+    @Test
+    public void testOnNextThrows() throws Exception {
+        FutureServerSocketChannel fssc = new FutureServerSocketChannel().bind(new InetSocketAddress(0));
+        CompletableFuture<FutureSocketChannel> acceptor = fssc.accept();
+        FutureSocketChannel fsc = new FutureSocketChannel();
+        fsc.connect(new InetSocketAddress("localhost", fssc.getLocalAddress().getPort())).get();
+        FutureSocketChannel server = acceptor.get();
+
+        CompletableFuture<Throwable> error = new CompletableFuture<>();
+        IllegalStateException thrown = new IllegalStateException();
+        server.reads().subscribe(new Subscriber<ByteBuffer>() {
+            public void onSubscribe(Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            public void onNext(ByteBuffer item) {
+                throw thrown;
+            }
+
+            public void onError(Throwable th) {
+                error.complete(th);
+            }
+
+            public void onComplete() {
+                error.complete(null);
+            }
+        });
+        fsc.write(new byte[10]).get();
+        assertSame(thrown, error.get(1, TimeUnit.SECONDS));
+        server.close();
+        fsc.close();
+        fssc.close();
+    }
+}
@@ -0,0 +1,49 @@
+package spullara.util;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void testSmallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 50; i++) {
+            histogram.record(i);
+        }
+        assertEquals(50, histogram.getCount());
+        assertEquals(24, histogram.getValueAtPercentile(50));
+        assertEquals(49, histogram.getValueAtPercentile(100));
+        assertEquals(24.5, histogram.getMean());
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertClose(500000000L, histogram.getValueAtPercentile(50));
+        assertClose(950000000L, histogram.getValueAtPercentile(95));
+        assertClose(999000000L, histogram.getValueAtPercentile(99.9));
+        assertEquals(1000000000L, histogram.getValueAtPercentile(100));
+        assertEquals(1000000000L, histogram.getMax());
+        assertTrue(histogram.getValueAtPercentile(95) >= 950000000L);
+    }
+
+    @Test
+    public void testReset() {
+        Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(50));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    private static void assertClose(long expected, long actual) {
+        assertTrue(actual + " not within 3.2% of " + expected, Math.abs(actual - expected) <= expected * 0.032);
+    }
+}
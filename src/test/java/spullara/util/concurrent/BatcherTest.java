@@ -0,0 +1,133 @@
+package spullara.util.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatcherTest {
+
+    private final List<List<Integer>> batches = new ArrayList<>();
+
+    private synchronized CompletableFuture<Map<Integer, String>> lookup(Collection<Integer> keys) {
+        batches.add(new ArrayList<>(keys));
+        Map<Integer, String> values = new HashMap<>();
+        for (Integer key : keys) {
+            if (key >= 0) values.put(key, "user" + key);
+        }
+        return CompletableFuture.completedFuture(values);
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        Batcher<Integer, String> batcher = new Batcher<>(this::lookup, 100, 20, TimeUnit.MILLISECONDS);
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(batcher.load(i % 10));
+        }
+        futures.add(batcher.load(-1));
+        assertFalse(futures.get(0).isDone());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("user" + (i % 10), futures.get(i).get(1, TimeUnit.SECONDS));
+        }
+        // Missing from the map
+        assertNull(futures.get(50).get());
+        assertEquals(1, batches.size());
+        assertEquals(11, batches.get(0).size());
+        // The same key in the same batch shares a future
+        assertTrue(futures.get(0) == futures.get(10));
+    }
+
+    @Test
+    public void testMaxBatchSize() throws Exception {
+        Batcher<Integer, String> batcher = new Batcher<>(this::lookup, 5, 1, TimeUnit.HOURS);
+        List<CompletableFuture<String>> futures = batcher.loadAll(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11));
+        // Two full batches go straight out, the rest waits for the window
+        assertEquals(2, batches.size());
+        assertTrue(futures.get(9).isDone());
+        assertFalse(futures.get(10).isDone());
+        batcher.flush();
+        assertEquals(3, batches.size());
+        assertEquals("[10, 11]", batches.get(2).toString());
+        assertEquals("user11", futures.get(11).get());
+    }
+
+    @Test
+    public void testInFlight() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<Map<Integer, String>> response = new CompletableFuture<>();
+        Batcher<Integer, String> batcher = new Batcher<>(keys -> {
+            calls.incrementAndGet();
+            return response;
+        }, 10, 1, TimeUnit.HOURS);
+        CompletableFuture<String> first = batcher.load(1);
+        batcher.flush();
+        // Joins the outstanding batch instead of starting another
+        assertTrue(first == batcher.load(1));
+        batcher.flush();
+        assertEquals(1, calls.get());
+        IllegalStateException ise = new IllegalStateException();
+        response.completeExceptionally(ise);
+        try {
+            first.get();
+            fail("Should have failed");
+        } catch (ExecutionException e) {
+            assertEquals(ise, e.getCause());
+        }
+        // Once complete the key is looked up again
+        assertFalse(first == batcher.load(1));
+    }
+
+    @Test
+    public void testNullResult() throws Exception {
+        Batcher<Integer, String> batcher = new Batcher<>(keys -> null, 10, 1, TimeUnit.HOURS);
+        CompletableFuture<String> first = batcher.load(1);
+        batcher.flush();
+        try {
+            first.get(1, TimeUnit.SECONDS);
+            fail("Should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+        // Not left in flight, so the key is looked up again
+        assertFalse(first == batcher.load(1));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        Batcher<Integer, String> batcher = new Batcher<>(keys -> CompletableFuture.supplyAsync(() -> lookup(keys).join()),
+                64, 5, TimeUnit.MILLISECONDS);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<CompletableFuture<String>>> loads = new ArrayList<>();
+            for (int i = 0; i < 10000; i++) {
+                int key = i % 500;
+                loads.add(CompletableFuture.supplyAsync(() -> batcher.load(key), executor));
+            }
+            for (int i = 0; i < 10000; i++) {
+                assertEquals("user" + (i % 500), loads.get(i).get().get(1, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        synchronized (this) {
+            assertTrue(batches.size() < 1000);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package spullara.util.concurrent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Futures.collect() against allOf() followed by joining every future, for
+ * a fan out whose futures are either all pending when collected and then
+ * completed, or already complete. Run main() to include
+ * gc.alloc.rate.norm per collect.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean pending;
+
+    private List<CompletableFuture<Integer>> futures() {
+        List<CompletableFuture<Integer>> futures = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            futures.add(pending ? new CompletableFuture<>() : CompletableFuture.completedFuture(i));
+        }
+        return futures;
+    }
+
+    private void complete(List<CompletableFuture<Integer>> futures) {
+        if (pending) {
+            for (int i = 0; i < size; i++) {
+                futures.get(i).complete(i);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Integer> collect() throws Exception {
+        List<CompletableFuture<Integer>> futures = futures();
+        CompletableFuture<List<Integer>> collected = Futures.collect(futures);
+        complete(futures);
+        return collected.get();
+    }
+
+    @Benchmark
+    public List<Integer> allOf() throws Exception {
+        List<CompletableFuture<Integer>> futures = futures();
+        CompletableFuture<List<Integer>> collected = CompletableFuture.allOf(futures.toArray(new CompletableFuture[size]))
+                .thenApply(v -> {
+                    List<Integer> results = new ArrayList<>(size);
+                    for (CompletableFuture<Integer> future : futures) {
+                        results.add(future.join());
+                    }
+                    return results;
+                });
+        complete(futures);
+        return collected.get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(CollectBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,161 @@
+package spullara.util.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FuturesTest {
+
+    @Test
+    public void testCollect() throws Exception {
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(i % 2 == 0 ? CompletableFuture.completedFuture(i) : new CompletableFuture<>());
+        }
+        CompletableFuture<List<Integer>> collected = Futures.collect(futures);
+        for (int i = 99; i > 0; i -= 2) {
+            assertFalse(collected.isDone());
+            futures.get(i).complete(i);
+        }
+        List<Integer> results = collected.get();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) results.get(i));
+        }
+        assertTrue(Futures.collect(Collections.<CompletableFuture<Integer>>emptyList()).get().isEmpty());
+    }
+
+    @Test
+    public void testCollectParallel() throws Exception {
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            int value = i;
+            futures.add(CompletableFuture.supplyAsync(() -> value));
+        }
+        List<Integer> results = Futures.collect(futures).get();
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, (int) results.get(i));
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        List<CompletableFuture<String>> futures = Arrays.asList(first, second);
+        CompletableFuture<List<String>> waiting = Futures.collect(futures);
+        CompletableFuture<List<String>> failFast = Futures.collect(futures, true);
+        IllegalStateException ise = new IllegalStateException();
+        first.completeExceptionally(ise);
+        assertTrue(failFast.isCompletedExceptionally());
+        assertFalse(waiting.isDone());
+        second.complete("second");
+        try {
+            waiting.get();
+            fail("Should have failed");
+        } catch (ExecutionException e) {
+            assertEquals(ise, e.getCause());
+        }
+        // Already failed futures fail fast without looking at the rest
+        assertTrue(Futures.collect(Arrays.asList(first, new CompletableFuture<String>()), true).isCompletedExceptionally());
+    }
+
+    @Test
+    public void testInCompletionOrder() throws Exception {
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        List<CompletableFuture<String>> ordered = Futures.inCompletionOrder(futures);
+        futures.get(2).complete("third");
+        futures.get(0).completeExceptionally(new IllegalStateException());
+        assertEquals("third", ordered.get(0).get());
+        assertTrue(ordered.get(1).isCompletedExceptionally());
+        assertFalse(ordered.get(2).isDone());
+        futures.get(1).complete("second");
+        assertEquals("second", ordered.get(2).get());
+    }
+
+    @Test
+    public void testIterateCompleted() throws Exception {
+        // Far deeper than the stack would allow if each iteration recursed
+        CompletableFuture<Integer> counted = Futures.iterate(0, i -> i < 1000000,
+                i -> CompletableFuture.completedFuture(i + 1));
+        assertEquals(1000000, (int) counted.get());
+    }
+
+    @Test
+    public void testWhileAsync() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Thread worker = executor.submit(Thread::currentThread).get();
+            Thread caller = Thread.currentThread();
+            AtomicInteger count = new AtomicInteger();
+            AtomicInteger hops = new AtomicInteger();
+            Futures.whileAsync(() -> count.get() < 100000, () -> {
+                // Each run is on the caller or the thread that completed the last step
+                if (Thread.currentThread() != caller && Thread.currentThread() != worker) hops.incrementAndGet();
+                // Mostly complete already, with an asynchronous step every so often
+                int i = count.incrementAndGet();
+                return i % 1000 == 0 ? CompletableFuture.supplyAsync(() -> i, executor) : CompletableFuture.completedFuture(i);
+            }).get();
+            assertEquals(100000, count.get());
+            assertEquals(0, hops.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(Futures.whileAsync(() -> false, () -> {
+            throw new IllegalStateException();
+        }).isDone());
+    }
+
+    @Test
+    public void testIterateFailure() throws Exception {
+        CompletableFuture<Integer> failing = new CompletableFuture<>();
+        CompletableFuture<Integer> iterated = Futures.iterate(0, i -> true, i -> i < 10 ? CompletableFuture.completedFuture(i + 1) : failing);
+        assertFalse(iterated.isDone());
+        IllegalStateException ise = new IllegalStateException();
+        failing.completeExceptionally(ise);
+        try {
+            iterated.get();
+            fail("Should have failed");
+        } catch (ExecutionException e) {
+            assertEquals(ise, e.getCause());
+        }
+        CompletableFuture<Integer> thrown = Futures.iterate(0, i -> true, i -> {
+            throw new IllegalArgumentException();
+        });
+        assertTrue(thrown.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testTrampoline() throws Exception {
+        List<String> order = new ArrayList<>();
+        Trampoline trampoline = Trampoline.getInstance();
+        trampoline.execute(() -> {
+            trampoline.execute(() -> order.add("nested"));
+            order.add("outer");
+        });
+        assertEquals("[outer, nested]", order.toString());
+
+        // A recursive chain of already completed futures keeps a flat stack
+        assertEquals(0, (int) countDown(100000, trampoline).get());
+    }
+
+    private static CompletableFuture<Integer> countDown(int i, Trampoline trampoline) {
+        return CompletableFuture.completedFuture(i)
+                .thenComposeAsync(n -> n == 0 ? CompletableFuture.completedFuture(0) : countDown(n - 1, trampoline), trampoline);
+    }
+}
@@ -0,0 +1,122 @@
+package spullara.util.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InterruptibleFutureTest {
+
+    @Test
+    public void testCancelCombined() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch stopped = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        CompletableFuture<String> other = new CompletableFuture<>();
+        InterruptibleFuture<String> future = InterruptibleFuture.supplyAsync(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            } finally {
+                stopped.countDown();
+            }
+            return "Doomed value";
+        }).thenApply(s -> s + "!").thenCombine(other, (a, b) -> a + ", " + b).handle((v, t) -> v);
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertTrue(future.cancel(true));
+        assertTrue(stopped.await(1, TimeUnit.SECONDS));
+        assertTrue(interrupted.get());
+        assertTrue(future.isCancelled());
+        assertTrue(other.isCancelled());
+        try {
+            future.get();
+            fail("Should have been cancelled");
+        } catch (CancellationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCancelCompose() throws Exception {
+        InterruptibleFuture<String> first = new InterruptibleFuture<>();
+        InterruptibleFuture<String> second = new InterruptibleFuture<>();
+        AtomicReference<Throwable> firstRaised = new AtomicReference<>();
+        AtomicReference<Throwable> secondRaised = new AtomicReference<>();
+        first.onRaise(firstRaised::set);
+        second.onRaise(secondRaised::set);
+        InterruptibleFuture<String> composed = first.thenCompose(s -> second);
+        first.complete("first");
+        composed.cancel(true);
+        // First is already done, only the stage it composed with is signalled
+        assertEquals(null, firstRaised.get());
+        assertTrue(secondRaised.get() instanceof CancellationException);
+
+        InterruptibleFuture<String> pending = new InterruptibleFuture<>();
+        InterruptibleFuture<Integer> length = pending.thenApply(String::length);
+        RuntimeException signal = new RuntimeException();
+        length.raise(signal);
+        AtomicReference<Throwable> late = new AtomicReference<>();
+        pending.onRaise(late::set);
+        assertEquals(signal, late.get());
+        assertFalse(pending.isDone());
+    }
+
+    @Test
+    public void testCancelBeforeStart() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch blocked = new CountDownLatch(1);
+            executor.execute(() -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    // Done
+                }
+            });
+            AtomicBoolean ran = new AtomicBoolean();
+            InterruptibleFuture<Boolean> future = InterruptibleFuture.supplyAsync(() -> ran.getAndSet(true), executor);
+            future.thenApply(b -> !b).cancel(true);
+            assertTrue(future.isCompletedExceptionally());
+            blocked.countDown();
+            // The pool thread is not left interrupted by the skipped task
+            assertFalse(executor.submit(() -> Thread.currentThread().isInterrupted()).get());
+            assertFalse(ran.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        InterruptibleFuture<Integer> future = InterruptibleFuture.supplyAsync(() -> 20)
+                .thenApplyAsync(i -> i + 1)
+                .thenCompose(i -> CompletableFuture.completedFuture(i * 2))
+                .thenCombine(InterruptibleFuture.from(CompletableFuture.completedFuture(0)), Integer::sum);
+        assertEquals(42, (int) future.get());
+
+        InterruptibleFuture<Integer> failed = InterruptibleFuture.<Integer>supplyAsync(() -> {
+            throw new IllegalStateException();
+        }).thenApply(i -> i + 1);
+        try {
+            failed.get();
+            fail("Should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(-1, (int) failed.exceptionally(th -> -1).get());
+    }
+}
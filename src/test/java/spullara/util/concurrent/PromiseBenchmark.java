@@ -0,0 +1,86 @@
+package spullara.util.concurrent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Promise against CompletableFuture for chains of maps. Pending chains are
+ * built before the first future completes, so every stage is a listener
+ * run on completion. Completed chains map a future that is already
+ * complete. Run main() to include gc.alloc.rate.norm per chain.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromiseBenchmark {
+
+    private static final Function<Integer, Integer> INCREMENT = i -> i + 1;
+
+    @Param({"1", "2", "5", "10"})
+    public int depth;
+
+    @Benchmark
+    public Integer promisePending() throws Exception {
+        Promise<Integer> first = new Promise<>();
+        Promise<Integer> last = first;
+        for (int i = 0; i < depth; i++) {
+            last = last.map(INCREMENT);
+        }
+        first.set(0);
+        return last.get();
+    }
+
+    @Benchmark
+    public Integer completableFuturePending() throws Exception {
+        CompletableFuture<Integer> first = new CompletableFuture<>();
+        CompletableFuture<Integer> last = first;
+        for (int i = 0; i < depth; i++) {
+            last = last.thenApply(INCREMENT);
+        }
+        first.complete(0);
+        return last.get();
+    }
+
+    @Benchmark
+    public Integer promiseCompleted() throws Exception {
+        Promise<Integer> last = Promise.of(0);
+        for (int i = 0; i < depth; i++) {
+            last = last.map(INCREMENT);
+        }
+        return last.get();
+    }
+
+    @Benchmark
+    public Integer completableFutureCompleted() throws Exception {
+        CompletableFuture<Integer> last = CompletableFuture.completedFuture(0);
+        for (int i = 0; i < depth; i++) {
+            last = last.thenApply(INCREMENT);
+        }
+        return last.get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(PromiseBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,178 @@
+package spullara.util.concurrent;
+
+import org.junit.Test;
+import spullara.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PromiseTest {
+
+    @Test
+    public void testMapAndCallbacks() throws Exception {
+        Promise<Integer> promise = new Promise<>();
+        List<String> events = new ArrayList<>();
+        Promise<String> mapped = promise.map(i -> "value " + i)
+                .onSuccess(s -> events.add("success " + s))
+                .onFailure(th -> events.add("failure"))
+                .ensure(() -> events.add("ensure"));
+        assertFalse(mapped.isDone());
+        assertTrue(promise.set(1));
+        assertFalse(promise.set(2));
+        assertEquals("value 1", mapped.get());
+        assertEquals("[success value 1, ensure]", events.toString());
+
+        // Already set, callbacks run immediately
+        mapped.onSuccess(s -> events.add("late"));
+        assertEquals("late", events.get(2));
+    }
+
+    @Test
+    public void testNullValue() throws Exception {
+        Promise<String> promise = new Promise<>();
+        Promise<Boolean> isNull = promise.map(s -> s == null);
+        promise.set(null);
+        assertNull(promise.get());
+        assertTrue(isNull.get());
+        assertNull(Promise.of(null).get());
+    }
+
+    @Test
+    public void testFailureAndRescue() throws Exception {
+        Promise<Integer> promise = new Promise<>();
+        Promise<Integer> mapped = promise.map(i -> i * 2);
+        Promise<Integer> rescued = mapped.rescue(th -> -1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        mapped.onFailure(failure::set);
+        IllegalStateException ise = new IllegalStateException();
+        promise.setException(ise);
+        assertEquals(ise, failure.get());
+        assertEquals(-1, (int) rescued.get());
+        try {
+            mapped.get();
+            fail("Should have failed");
+        } catch (ExecutionException e) {
+            assertEquals(ise, e.getCause());
+        }
+        // Failures thrown by the mapper fail the mapped promise
+        Promise<Integer> thrown = Promise.of(1).map(i -> {
+            throw new IllegalArgumentException();
+        });
+        assertTrue(thrown.rescue(th -> th instanceof IllegalArgumentException ? 1 : 0).get() == 1);
+    }
+
+    @Test
+    public void testFlatMapJoinSelect() throws Exception {
+        Promise<Integer> user = new Promise<>();
+        Promise<String> data = user.flatMap(id -> Promise.execute(ForkJoinPool.commonPool(), () -> "data" + id));
+        Promise<String> page = new Promise<>();
+        Promise<Pair<String, String>> joined = data.join(page);
+        user.set(7);
+        assertEquals("data7", data.get());
+        assertFalse(joined.isDone());
+        page.set("page");
+        assertEquals(Pair.of("data7", "page"), joined.get());
+
+        Promise<String> slow = new Promise<>();
+        Promise<String> fast = new Promise<>();
+        Promise<String> first = slow.select(fast);
+        fast.set("fast");
+        slow.set("slow");
+        assertEquals("fast", first.get());
+
+        Promise<String> failing = new Promise<>();
+        Promise<Pair<String, String>> failed = new Promise<String>().join(failing);
+        failing.setException(new IllegalStateException());
+        assertTrue(failed.isDone());
+    }
+
+    @Test
+    public void testRaise() throws Exception {
+        Promise<Integer> source = new Promise<>();
+        AtomicReference<Throwable> raised = new AtomicReference<>();
+        source.onRaise(raised::set);
+        Promise<Integer> inner = new Promise<>();
+        AtomicReference<Throwable> innerRaised = new AtomicReference<>();
+        inner.onRaise(innerRaised::set);
+        Promise<Integer> chain = source.map(i -> i + 1).flatMap(i -> inner);
+        source.set(1);
+
+        assertTrue(chain.cancel(true));
+        assertTrue(chain.isCancelled());
+        // Source was already set so only the inner promise is signalled
+        assertNull(raised.get());
+        assertTrue(innerRaised.get() instanceof CancellationException);
+        try {
+            chain.get();
+            fail("Should have been cancelled");
+        } catch (CancellationException e) {
+            // Expected
+        }
+
+        Promise<Integer> pending = new Promise<>();
+        Promise<Integer> linked = new Promise<>();
+        pending.link(linked);
+        RuntimeException signal = new RuntimeException();
+        pending.map(i -> i).raise(signal);
+        AtomicReference<Throwable> late = new AtomicReference<>();
+        linked.onRaise(late::set);
+        assertEquals(signal, late.get());
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        Promise<String> promise = new Promise<>();
+        try {
+            promise.get(10, TimeUnit.MILLISECONDS);
+            fail("Should have timed out");
+        } catch (TimeoutException e) {
+            // Expected
+        }
+        new Thread(() -> promise.set("done")).start();
+        assertEquals("done", promise.get());
+        assertEquals("done", promise.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBadCallbacks() throws Exception {
+        Promise<Integer> promise = new Promise<>();
+        List<String> events = new ArrayList<>();
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler((t, th) -> events.add("uncaught " + th.getMessage()));
+        Promise<String> flatMapped;
+        try {
+            promise.onSuccess(i -> events.add("first"));
+            flatMapped = promise.flatMap(i -> null);
+            promise.map(i -> {
+                throw new IllegalStateException("map");
+            }).onFailure(th -> {
+                throw new IllegalStateException("onFailure");
+            });
+            promise.onSuccess(i -> events.add("last"));
+            // Neither the null nor the throwing callback reach the caller
+            assertTrue(promise.set(1));
+        } finally {
+            thread.setUncaughtExceptionHandler(handler);
+        }
+        assertEquals("[first, uncaught onFailure, last]", events.toString());
+        try {
+            flatMapped.get();
+            fail("Should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package spullara.util.concurrent;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    @Test
+    public void testFiresInOrder() throws Exception {
+        TimerWheel timer = new TimerWheel(1, TimeUnit.MILLISECONDS, 8);
+        try {
+            List<Integer> fired = new CopyOnWriteArrayList<>();
+            CountDownLatch latch = new CountDownLatch(3);
+            // Longer than the wheel so the later ones wrap around it
+            timer.schedule(() -> { fired.add(3); latch.countDown(); }, 60, TimeUnit.MILLISECONDS);
+            timer.schedule(() -> { fired.add(1); latch.countDown(); }, 5, TimeUnit.MILLISECONDS);
+            timer.schedule(() -> { fired.add(2); latch.countDown(); }, 30, TimeUnit.MILLISECONDS);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(asList(1, 2, 3), fired);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        TimerWheel timer = new TimerWheel(1, TimeUnit.MILLISECONDS, 64);
+        try {
+            CountDownLatch cancelled = new CountDownLatch(1);
+            CountDownLatch fired = new CountDownLatch(1);
+            TimerWheel.Timeout timeout = timer.schedule(cancelled::countDown, 20, TimeUnit.MILLISECONDS);
+            TimerWheel.Timeout other = timer.schedule(fired::countDown, 40, TimeUnit.MILLISECONDS);
+            assertTrue(timeout.cancel());
+            assertFalse(timeout.cancel());
+            assertTrue(fired.await(5, TimeUnit.SECONDS));
+            assertEquals(1, cancelled.getCount());
+            assertTrue(timeout.isCancelled());
+            assertTrue(other.isExpired());
+            assertFalse(other.cancel());
+        } finally {
+            timer.stop();
+        }
+    }
+}